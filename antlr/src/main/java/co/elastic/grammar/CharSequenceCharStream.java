@@ -0,0 +1,143 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.util.Objects;
+
+/**
+ * Character stream reading straight from a range of a {@link CharSequence}, such as the text of an editor
+ * document, without copying it to a buffer first.
+ * <p>
+ * Indexes are relative to the start of the range, so token offsets and lines are relative to the query and
+ * not to the text around it. Indexes count UTF-16 code units, the same unit as offsets in the editor, while the
+ * lexer is handed whole code points, so a surrogate pair is read as one character but spans two indexes
+ * (the names of some dev commands end with an emoji, outside the BMP).
+ * <p>
+ * The sequence must not change while it's being read.
+ */
+public final class CharSequenceCharStream implements CharStream {
+
+    private final CharSequence text;
+    private final int start;
+    private final int size;
+    private int index;
+
+    public CharSequenceCharStream(CharSequence text) {
+        this(text, 0, text.length());
+    }
+
+    public CharSequenceCharStream(CharSequence text, int start, int end) {
+        Objects.checkFromToIndex(start, end, text.length());
+        this.text = text;
+        this.start = start;
+        this.size = end - start;
+    }
+
+    @Override
+    public void consume() {
+        if (index >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        index += Character.charCount(codePointAt(index));
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        int position = index;
+        if (i > 0) {
+            for (int skip = 1; skip < i && position < size; skip++) {
+                position += Character.charCount(codePointAt(position));
+            }
+        } else {
+            for (int skip = 0; skip > i; skip--) {
+                if (position <= 0) {
+                    return IntStream.EOF;
+                }
+                position -= Character.charCount(codePointBefore(position));
+            }
+        }
+        if (position >= size) {
+            return IntStream.EOF;
+        }
+        return codePointAt(position);
+    }
+
+    private int codePointAt(int position) {
+        char high = text.charAt(start + position);
+        if (Character.isHighSurrogate(high) && position + 1 < size) {
+            char low = text.charAt(start + position + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(high, low);
+            }
+        }
+        return high;
+    }
+
+    private int codePointBefore(int position) {
+        char low = text.charAt(start + position - 1);
+        if (Character.isLowSurrogate(low) && position - 2 >= 0) {
+            char high = text.charAt(start + position - 2);
+            if (Character.isHighSurrogate(high)) {
+                return Character.toCodePoint(high, low);
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int mark() {
+        // the whole range is always available, nothing to hold on to
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(int index) {
+        this.index = Math.min(Math.max(index, 0), size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return IntStream.UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int from = Math.max(interval.a, 0);
+        int to = Math.min(interval.b + 1, size);
+        if (from >= to) {
+            return "";
+        }
+        return text.subSequence(start + from, start + to).toString();
+    }
+
+    @Override
+    public String toString() {
+        return text.subSequence(start, start + size).toString();
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Where the end of a query being completed is, found in a single pass over the tokens already lexed for
+ * completion: the command it's in, the index patterns the query reads, and the columns it defined up to there.
+ * Like {@link EsqlQueryOutline} it only looks at tokens, so it works on the unfinished query being typed.
+ * <p>
+ * Columns are followed through the commands that change them without needing the mappings: EVAL, ROW and
+ * the like add the names they assign, RENAME and DROP replace or remove them, STATS and KEEP leave only theirs.
+ * Subqueries (FORK branches) aren't followed.
+ */
+public final class EsqlCompletionScope {
+
+    /**
+     * Token type of the command the query ends in, {@link Token#INVALID_TYPE} before the first command and
+     * right after a pipe, where the next command is still to be typed.
+     */
+    public final int command;
+
+    /**
+     * Whether the query ends in the METADATA fields of a FROM or TS command.
+     */
+    public final boolean metadata;
+
+    public final List<String> indices;
+
+    /**
+     * The columns the query defined that are still there at its end, metadata fields included.
+     */
+    public final List<String> columns;
+
+    /**
+     * Whether the fields of the indices are still columns, they aren't after STATS or KEEP, nor after ROW.
+     */
+    public final boolean indexFields;
+
+    private EsqlCompletionScope(int command, boolean metadata, List<String> indices, List<String> columns,
+                                boolean indexFields) {
+        this.command = command;
+        this.metadata = metadata;
+        this.indices = List.copyOf(indices);
+        this.columns = List.copyOf(columns);
+        this.indexFields = indexFields;
+    }
+
+    /**
+     * @param tokens - The tokens of the query up to where it's completed, hidden ones included
+     */
+    public static EsqlCompletionScope of(List<? extends Token> tokens) {
+        List<Token> visible = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            if (token.getChannel() == Token.DEFAULT_CHANNEL && token.getType() != Token.EOF) {
+                visible.add(token);
+            }
+        }
+
+        int command = Token.INVALID_TYPE;
+        boolean metadata = false;
+        Set<String> indices = new LinkedHashSet<>();
+        Set<String> columns = new LinkedHashSet<>();
+        boolean indexFields = true;
+        // what STATS outputs and KEEP lists, replacing the columns once the command ends
+        List<String> outputs = new ArrayList<>();
+        boolean grouping = false;
+        boolean commandStart = true;
+        int depth = 0;
+
+        for (int i = 0; i < visible.size(); i++) {
+            int type = visible.get(i).getType();
+
+            if (commandStart) {
+                commandStart = false;
+                command = type;
+                if (type == EsqlBaseLexer.FROM || type == EsqlBaseLexer.DEV_TIME_SERIES) {
+                    i = EsqlQueryOutline.indexPatterns(visible, i + 1, indices);
+                    metadata = i < visible.size() && visible.get(i).getType() == EsqlBaseLexer.METADATA;
+                    if (!metadata) {
+                        // the token ending the patterns is read as any other
+                        i--;
+                    }
+                } else if (type == EsqlBaseLexer.ROW || type == EsqlBaseLexer.SHOW) {
+                    indexFields = false;
+                }
+                continue;
+            }
+
+            switch (type) {
+                case EsqlBaseLexer.LP, EsqlBaseLexer.OPENING_BRACKET -> {
+                    depth++;
+                    continue;
+                }
+                case EsqlBaseLexer.RP, EsqlBaseLexer.CLOSING_BRACKET -> {
+                    depth = Math.max(0, depth - 1);
+                    continue;
+                }
+                default -> {
+                }
+            }
+            if (depth > 0) {
+                continue;
+            }
+            if (type == EsqlBaseLexer.PIPE) {
+                if (command == EsqlBaseLexer.STATS) {
+                    columns.clear();
+                    columns.addAll(outputs);
+                    indexFields = false;
+                } else if (command == EsqlBaseLexer.KEEP) {
+                    Set<String> kept = new LinkedHashSet<>();
+                    for (String name : outputs) {
+                        if (name.indexOf('*') < 0) {
+                            kept.add(name);
+                        } else {
+                            for (String column : columns) {
+                                if (matches(name, column)) {
+                                    kept.add(column);
+                                }
+                            }
+                        }
+                    }
+                    columns.clear();
+                    columns.addAll(kept);
+                    indexFields = false;
+                }
+                outputs.clear();
+                grouping = false;
+                metadata = false;
+                command = Token.INVALID_TYPE;
+                commandStart = true;
+                continue;
+            }
+            if (type == EsqlBaseLexer.BY) {
+                grouping = true;
+                continue;
+            }
+            if (metadata) {
+                // lexed in the mode of FROM, as sources
+                if (type == EsqlBaseLexer.UNQUOTED_SOURCE) {
+                    columns.add(visible.get(i).getText());
+                }
+                continue;
+            }
+            if (!EsqlQueryOutline.isName(type)) {
+                continue;
+            }
+
+            int first = i;
+            StringBuilder dotted = new StringBuilder(EsqlQueryOutline.name(visible.get(i)));
+            while (i + 2 < visible.size() && visible.get(i + 1).getType() == EsqlBaseLexer.DOT
+                   && EsqlQueryOutline.isName(visible.get(i + 2).getType())) {
+                dotted.append('.').append(EsqlQueryOutline.name(visible.get(i + 2)));
+                i += 2;
+            }
+            String name = dotted.toString();
+            int next = i + 1 < visible.size() ? visible.get(i + 1).getType() : Token.EOF;
+            int previous = first > 0 ? visible.get(first - 1).getType() : Token.INVALID_TYPE;
+
+            if (next == EsqlBaseLexer.LP) {
+                continue;
+            }
+            switch (command) {
+                case EsqlBaseLexer.DROP -> columns.removeIf(column -> matches(name, column));
+                case EsqlBaseLexer.KEEP -> outputs.add(name);
+                case EsqlBaseLexer.RENAME -> {
+                    // old AS new, or new = old
+                    if (next == EsqlBaseLexer.AS || previous == EsqlBaseLexer.ASSIGN) {
+                        columns.remove(name);
+                    } else if (previous == EsqlBaseLexer.AS || next == EsqlBaseLexer.ASSIGN) {
+                        columns.add(name);
+                    }
+                }
+                case EsqlBaseLexer.STATS, EsqlBaseLexer.DEV_INLINESTATS -> {
+                    // a grouping that's just a column, BY host
+                    boolean group = grouping && (previous == EsqlBaseLexer.BY || previous == EsqlBaseLexer.COMMA)
+                                    && (next == EsqlBaseLexer.COMMA || next == EsqlBaseLexer.PIPE
+                                        || next == Token.EOF);
+                    if ((next == EsqlBaseLexer.ASSIGN || group) && command == EsqlBaseLexer.STATS) {
+                        outputs.add(name);
+                    } else if (next == EsqlBaseLexer.ASSIGN || group) {
+                        // INLINESTATS keeps the columns, and adds its own to them
+                        columns.add(name);
+                    }
+                }
+                default -> {
+                    if (next == EsqlBaseLexer.ASSIGN || previous == EsqlBaseLexer.AS) {
+                        columns.add(name);
+                    }
+                }
+            }
+        }
+        return new EsqlCompletionScope(command, metadata, new ArrayList<>(indices), new ArrayList<>(columns),
+            indexFields);
+    }
+
+    /**
+     * Whether the name matches the pattern, where {@code *} matches any characters, as in KEEP and DROP.
+     */
+    public static boolean matches(String pattern, String name) {
+        int p = 0;
+        int n = 0;
+        int star = -1;
+        int starMatch = 0;
+        while (n < name.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                starMatch = n;
+            } else if (p < pattern.length() && pattern.charAt(p) == name.charAt(n)) {
+                p++;
+                n++;
+            } else if (star >= 0) {
+                // backtracking, the last star matches one more character
+                p = star + 1;
+                n = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The tokens of a text, with the lexer state each of them was started from, so that the next version of the text
+ * is lexed again only from the first token an edit may have changed. While typing, consecutive completions differ
+ * by a character or two, and all of the query before the edit is reused.
+ * <p>
+ * A token is reused if the lexer didn't look at any changed character to produce it: the lexer looks past the end
+ * of a token to find the longest match, so what was lexed as {@code FRO} becomes {@code FROM} once an {@code M}
+ * is typed. Lexing then resumes in the state the lexer was in before the first token that isn't reused,
+ * mode stack included, as most commands switch to a mode of their own (FROM, ENRICH, LOOKUP, FORK...).
+ * <p>
+ * Instances are immutable and read from their own copy of the text, so they can be kept across edits of a document.
+ */
+public final class EsqlLexedText {
+
+    private final String text;
+    private final boolean devVersion;
+    // hidden ones included, ending with EOF
+    private final List<Token> tokens;
+    // the lexer state before each token
+    private final List<LexerState> states;
+    private final int reusedTokens;
+
+    private EsqlLexedText(String text, boolean devVersion, List<Token> tokens, List<LexerState> states,
+                          int reusedTokens) {
+        this.text = text;
+        this.devVersion = devVersion;
+        this.tokens = Collections.unmodifiableList(tokens);
+        this.states = states;
+        this.reusedTokens = reusedTokens;
+    }
+
+    /**
+     * Lexes the text between start and end, reusing the tokens of the previous version of the text
+     * that come before the first change.
+     *
+     * @param previous      - What the previous version of the text was lexed into, null to lex the whole text
+     * @param config        - Grammar versioning, null behaves as dev version
+     * @param checkCanceled - Called for every token lexed, expected to throw when the tokens aren't needed anymore
+     */
+    public static EsqlLexedText lex(CharSequence text, int start, int end, EsqlConfig config, EsqlLexedText previous,
+                                    Runnable checkCanceled) {
+        String copy = text.subSequence(start, end).toString();
+        boolean devVersion = config == null || config.isDevVersion();
+
+        int reused = 0;
+        if (previous != null && previous.devVersion == devVersion) {
+            int changed = firstDifference(previous.text, copy);
+            // the EOF token is always lexed again
+            while (reused < previous.tokens.size() - 1 && previous.states.get(reused).lookaheadEnd <= changed) {
+                reused++;
+            }
+        }
+
+        LookaheadCharStream input = new LookaheadCharStream(new CharSequenceCharStream(copy));
+        try (EsqlParserSession session = EsqlParserSession.acquire(input, config, checkCanceled)) {
+            EsqlBaseLexer lexer = session.lexer();
+            LexerATNSimulator interpreter = lexer.getInterpreter();
+            // no lexer: the tokens outlive the session, and its pooled lexer isn't theirs to keep
+            Pair<TokenSource, CharStream> source = new Pair<>(null, input);
+
+            List<Token> tokens = new ArrayList<>(reused + 16);
+            List<LexerState> states = new ArrayList<>(reused + 16);
+            for (int i = 0; i < reused; i++) {
+                // same characters, read from the new copy so that older copies of the text aren't kept alive
+                tokens.add(copy(previous.tokens.get(i), source, i));
+                states.add(previous.states.get(i));
+            }
+
+            if (reused > 0) {
+                LexerState resume = previous.states.get(reused);
+                input.seek(resume.index);
+                lexer._mode = resume.mode;
+                lexer._modeStack.clear();
+                for (int mode : resume.modeStack) {
+                    lexer._modeStack.push(mode);
+                }
+                interpreter.setLine(resume.line);
+                interpreter.setCharPositionInLine(resume.charPositionInLine);
+            }
+
+            while (true) {
+                checkCanceled.run();
+                int index = input.index();
+                int mode = lexer._mode;
+                int[] modeStack = lexer._modeStack.toArray();
+                int line = interpreter.getLine();
+                int charPositionInLine = interpreter.getCharPositionInLine();
+                input.lookaheadEnd = index;
+
+                Token token = copy(lexer.nextToken(), source, tokens.size());
+                tokens.add(token);
+                states.add(new LexerState(index, mode, modeStack, line, charPositionInLine, input.lookaheadEnd));
+                if (token.getType() == Token.EOF) {
+                    break;
+                }
+            }
+            return new EsqlLexedText(copy, devVersion, tokens, states, reused);
+        }
+    }
+
+    private static Token copy(Token token, Pair<TokenSource, CharStream> source, int index) {
+        CommonToken copied = new CommonToken(source, token.getType(), token.getChannel(), token.getStartIndex(),
+            token.getStopIndex());
+        copied.setLine(token.getLine());
+        copied.setCharPositionInLine(token.getCharPositionInLine());
+        copied.setTokenIndex(index);
+        return copied;
+    }
+
+    private static int firstDifference(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    /**
+     * All the tokens, hidden ones included, the last one being EOF.
+     */
+    public List<Token> tokens() {
+        return tokens;
+    }
+
+    /**
+     * How many tokens were taken from the previous version of the text instead of being lexed.
+     */
+    public int reusedTokens() {
+        return reusedTokens;
+    }
+
+    private static final class LexerState {
+        private final int index;
+        private final int mode;
+        private final int[] modeStack;
+        private final int line;
+        private final int charPositionInLine;
+        // past the last character the lexer looked at to produce the token
+        private final int lookaheadEnd;
+
+        LexerState(int index, int mode, int[] modeStack, int line, int charPositionInLine, int lookaheadEnd) {
+            this.index = index;
+            this.mode = mode;
+            this.modeStack = modeStack;
+            this.line = line;
+            this.charPositionInLine = charPositionInLine;
+            this.lookaheadEnd = lookaheadEnd;
+        }
+    }
+
+    /**
+     * Records how far ahead the lexer looked while producing a token.
+     */
+    private static final class LookaheadCharStream implements CharStream {
+
+        private final CharStream input;
+        int lookaheadEnd;
+
+        LookaheadCharStream(CharStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public int LA(int i) {
+            int c = input.LA(i);
+            if (i > 0) {
+                int index = input.index();
+                // exact for the next character, which is what the lexer reads almost every time; further ones may be
+                // surrogate pairs, counting two indexes each is on the safe side
+                int end = i == 1 ? index + (c == EOF ? 1 : Character.charCount(c)) : index + 2 * i;
+                lookaheadEnd = Math.max(lookaheadEnd, end);
+            }
+            return c;
+        }
+
+        @Override
+        public void consume() {
+            input.consume();
+        }
+
+        @Override
+        public int mark() {
+            return input.mark();
+        }
+
+        @Override
+        public void release(int marker) {
+            input.release(marker);
+        }
+
+        @Override
+        public int index() {
+            return input.index();
+        }
+
+        @Override
+        public void seek(int index) {
+            input.seek(index);
+        }
+
+        @Override
+        public int size() {
+            return input.size();
+        }
+
+        @Override
+        public String getSourceName() {
+            return input.getSourceName();
+        }
+
+        @Override
+        public String getText(Interval interval) {
+            return input.getText(interval);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import java.util.BitSet;
+
+/**
+ * Lines of a file on which an element marked with a "// ES|QL" comment can start, found with a single scan of the
+ * text so each candidate element is checked with a bit lookup.
+ * <p>
+ * The comment must start the line right above the element. Kotlin elements are checked against the two lines above
+ * instead: the comment must start the first of them, or the second if the first one is blank.
+ */
+public final class EsqlMarkedLines {
+
+    public static final String MARKER = "// ES|QL";
+
+    private final BitSet lines = new BitSet();
+    private final BitSet kotlinLines = new BitSet();
+
+    private EsqlMarkedLines() {}
+
+    public boolean isMarked(int line, boolean kotlin) {
+        return line >= 0 && (kotlin ? kotlinLines : lines).get(line);
+    }
+
+    /**
+     * @param text - Text of the document, lines are separated by \n like in IntelliJ documents
+     */
+    public static EsqlMarkedLines of(CharSequence text) {
+        EsqlMarkedLines marked = new EsqlMarkedLines();
+        boolean previousBlank = true;
+        int line = 0;
+        int lineStart = 0;
+        int length = text.length();
+        while (lineStart <= length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int firstChar = lineStart;
+            while (firstChar < lineEnd && Character.isWhitespace(text.charAt(firstChar))) {
+                firstChar++;
+            }
+            if (startsWithMarker(text, firstChar, lineEnd)) {
+                marked.lines.set(line + 1);
+                marked.kotlinLines.set(line + 2);
+                if (previousBlank) {
+                    marked.kotlinLines.set(line + 1);
+                }
+            }
+            previousBlank = firstChar == lineEnd;
+            line++;
+            lineStart = lineEnd + 1;
+        }
+        return marked;
+    }
+
+    private static boolean startsWithMarker(CharSequence text, int start, int end) {
+        if (end - start < MARKER.length()) {
+            return false;
+        }
+        for (int i = 0; i < MARKER.length(); i++) {
+            if (text.charAt(start + i) != MARKER.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
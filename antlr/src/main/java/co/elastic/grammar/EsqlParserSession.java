@@ -0,0 +1,164 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.PredictionMode;
+
+/**
+ * A lexer, token stream and parser reused across parses on the same thread, so that a parse doesn't pay for
+ * creating them and their simulators each time.
+ * <p>
+ * The decision DFAs and the prediction context cache are static in the generated lexer and parser, so they
+ * are shared by every session on every thread and stay warm no matter which session filled them.
+ * <p>
+ * A session is only valid between {@link #acquire} and {@link #close}, and must be closed on the thread that
+ * acquired it:
+ * <pre>{@code
+ * try (EsqlParserSession session = EsqlParserSession.acquire(input, config)) {
+ *     session.addErrorListener(listener);
+ *     session.singleStatement();
+ * }
+ * }</pre>
+ */
+public final class EsqlParserSession implements AutoCloseable {
+
+    private static final ThreadLocal<EsqlParserSession> SESSIONS = ThreadLocal.withInitial(EsqlParserSession::new);
+    private static final Runnable NOT_CANCELED = () -> {};
+
+    private final EsqlBaseLexer lexer = new EsqlBaseLexer(null);
+    private final CheckedTokenStream tokens = new CheckedTokenStream(lexer);
+    private final EsqlBaseParser parser = new EsqlBaseParser(tokens);
+    private final DefaultErrorStrategy errorHandler = new DefaultErrorStrategy();
+    private boolean inUse;
+
+    private EsqlParserSession() {}
+
+    /**
+     * Returns the session of the current thread, reset to read the given input with the default parser settings
+     * and no listeners. If that session is still in use, like when parsing from inside a parse listener,
+     * a new one is returned instead.
+     *
+     * @param input  - Characters to parse
+     * @param config - Grammar versioning, null behaves as dev version
+     */
+    public static EsqlParserSession acquire(CharStream input, EsqlConfig config) {
+        return acquire(input, config, NOT_CANCELED);
+    }
+
+    /**
+     * Same as {@link #acquire(CharStream, EsqlConfig)}, with a check for cancellation that is called for every
+     * token the lexer produces and the parser consumes. It's expected to throw when the parse isn't needed anymore,
+     * the exception then propagates from the parse method.
+     */
+    public static EsqlParserSession acquire(CharStream input, EsqlConfig config, Runnable checkCanceled) {
+        EsqlParserSession session = SESSIONS.get();
+        if (session.inUse) {
+            session = new EsqlParserSession();
+        }
+        session.open(input, config, checkCanceled);
+        return session;
+    }
+
+    private void open(CharStream input, EsqlConfig config, Runnable checkCanceled) {
+        inUse = true;
+        tokens.checkCanceled = checkCanceled;
+
+        lexer.setInputStream(input);
+        lexer.setEsqlConfig(config);
+        lexer.removeErrorListeners();
+
+        tokens.setTokenSource(lexer);
+
+        parser.setTokenStream(tokens);
+        parser.setEsqlConfig(config);
+        parser.removeErrorListeners();
+        parser.removeParseListeners();
+        parser.setErrorHandler(errorHandler);
+        errorHandler.reset(parser);
+        parser.setBuildParseTree(true);
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+    }
+
+    public EsqlBaseLexer lexer() {
+        return lexer;
+    }
+
+    public CommonTokenStream tokens() {
+        return tokens;
+    }
+
+    public EsqlBaseParser parser() {
+        return parser;
+    }
+
+    /**
+     * Registers the listener with both the lexer and the parser.
+     */
+    public void addErrorListener(ANTLRErrorListener listener) {
+        lexer.addErrorListener(listener);
+        parser.addErrorListener(listener);
+    }
+
+    /**
+     * Parses the whole input with {@link EsqlParsing#singleStatement}.
+     */
+    public EsqlBaseParser.SingleStatementContext singleStatement() {
+        return EsqlParsing.singleStatement(parser);
+    }
+
+    /**
+     * Drops the input, the buffered tokens and the listeners, so the session doesn't keep them alive,
+     * and makes it available for the next parse on this thread.
+     */
+    @Override
+    public void close() {
+        lexer.setInputStream(null);
+        lexer.removeErrorListeners();
+        tokens.setTokenSource(lexer);
+        parser.setTokenStream(tokens);
+        parser.removeErrorListeners();
+        parser.removeParseListeners();
+        tokens.checkCanceled = NOT_CANCELED;
+        inUse = false;
+    }
+
+    /**
+     * Token stream with a cancellation checkpoint for each token lexed or consumed, so even the prediction of a long
+     * query, which can look far ahead before consuming anything, reaches one regularly.
+     */
+    private static final class CheckedTokenStream extends CommonTokenStream {
+
+        Runnable checkCanceled = NOT_CANCELED;
+
+        CheckedTokenStream(TokenSource tokenSource) {
+            super(tokenSource);
+        }
+
+        @Override
+        protected int fetch(int n) {
+            for (int i = 0; i < n; i++) {
+                checkCanceled.run();
+                if (super.fetch(1) == 0) {
+                    return i;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void consume() {
+            checkCanceled.run();
+            super.consume();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fills the decision DFAs of the lexer and parser, which are shared by every parser instance, by parsing a
+ * bundled corpus that uses every command of the grammar. Without it the first queries pay for building the DFA
+ * states they go through, which makes the first validation and completion after startup visibly slower.
+ */
+public final class EsqlParserWarmUp {
+
+    static final String CORPUS = "warmup.esql";
+
+    private EsqlParserWarmUp() {}
+
+    /**
+     * Parses the whole corpus.
+     *
+     * @param config        - Grammar versioning, should be the one used by the features being warmed up
+     * @param checkCanceled - Called while parsing, throws to stop the warm-up
+     * @return the time it took, in nanoseconds
+     */
+    public static long run(EsqlConfig config, Runnable checkCanceled) {
+        long start = System.nanoTime();
+        for (String query : corpus()) {
+            try (EsqlParserSession session =
+                     EsqlParserSession.acquire(new CharSequenceCharStream(query), config, checkCanceled)) {
+                session.parser().setBuildParseTree(false);
+                session.singleStatement();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The queries of the corpus, which are separated by blank lines. Lines starting with // are left out.
+     */
+    static List<String> corpus() {
+        try (InputStream in = EsqlParserWarmUp.class.getResourceAsStream(CORPUS)) {
+            if (in == null) {
+                throw new IOException("warm-up corpus not found");
+            }
+            List<String> queries = new ArrayList<>();
+            StringBuilder query = new StringBuilder();
+            for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n", -1)) {
+                if (line.isBlank()) {
+                    if (!query.isEmpty()) {
+                        queries.add(query.toString());
+                        query.setLength(0);
+                    }
+                } else if (!line.startsWith("//")) {
+                    query.append(line).append('\n');
+                }
+            }
+            if (!query.isEmpty()) {
+                queries.add(query.toString());
+            }
+            return queries;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing entry points shared by the plugin features.
+ */
+public final class EsqlParsing {
+
+    private EsqlParsing() {}
+
+    /**
+     * Parses a whole query in two stages: first with SLL prediction and an error strategy that bails out on the
+     * first syntax error, which is enough for the common case of a valid query, then, only if that fails, again
+     * with full LL prediction and error recovery so that the errors get reported to the parser listeners.
+     * <p>
+     * The parser listeners are only notified by the second stage, so every error is reported exactly once.
+     * Lexer errors are reported while the tokens are buffered in the first stage and aren't repeated either.
+     *
+     * @param parser - Parser with its token stream and listeners already set up
+     * @return the context of the stage that completed
+     */
+    public static EsqlBaseParser.SingleStatementContext singleStatement(EsqlBaseParser parser) {
+        List<? extends ANTLRErrorListener> listeners = new ArrayList<>(parser.getErrorListeners());
+        ANTLRErrorStrategy errorHandler = parser.getErrorHandler();
+        PredictionMode predictionMode = parser.getInterpreter().getPredictionMode();
+
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        try {
+            return parser.singleStatement();
+        } catch (ParseCancellationException e) {
+            // rewinds the token stream, the tokens are already buffered so nothing gets lexed again
+            parser.reset();
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            parser.setErrorHandler(errorHandler);
+            errorHandler.reset(parser);
+            listeners.forEach(parser::addErrorListener);
+            return parser.singleStatement();
+        } finally {
+            parser.getInterpreter().setPredictionMode(predictionMode);
+            parser.setErrorHandler(errorHandler);
+            parser.removeErrorListeners();
+            listeners.forEach(parser::addErrorListener);
+        }
+    }
+}
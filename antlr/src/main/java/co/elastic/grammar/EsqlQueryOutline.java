@@ -0,0 +1,139 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EmptyStackException;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a query reads, found from its tokens alone so it works on invalid queries too: the index patterns of its
+ * FROM and TS commands, and the names of the fields it references. Names that the query defines itself
+ * ({@code EVAL x = ...}, {@code RENAME a AS x}) don't count as references from there on, function names neither.
+ */
+public final class EsqlQueryOutline {
+
+    public final List<String> indices;
+    public final List<String> fields;
+
+    private EsqlQueryOutline(List<String> indices, List<String> fields) {
+        this.indices = List.copyOf(indices);
+        this.fields = List.copyOf(fields);
+    }
+
+    public static EsqlQueryOutline of(CharSequence text, int start, int end, EsqlConfig config) {
+        List<Token> tokens = new ArrayList<>();
+        try (EsqlParserSession session = EsqlParserSession.acquire(new CharSequenceCharStream(text, start, end),
+            config)) {
+            try {
+                session.tokens().fill();
+            } catch (EmptyStackException e) {
+                // the lexer pops a mode it never pushed on some invalid input, what was read so far still counts
+            }
+            for (Token token : session.tokens().getTokens()) {
+                if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+                    tokens.add(token);
+                }
+            }
+        }
+
+        Set<String> indices = new LinkedHashSet<>();
+        Set<String> fields = new LinkedHashSet<>();
+        Set<String> defined = new HashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            int type = tokens.get(i).getType();
+
+            if (type == EsqlBaseLexer.FROM || type == EsqlBaseLexer.DEV_TIME_SERIES) {
+                // the token ending the patterns isn't a name either
+                i = indexPatterns(tokens, i + 1, indices);
+                continue;
+            }
+
+            if (isName(type)) {
+                StringBuilder name = new StringBuilder(name(tokens.get(i)));
+                while (i + 2 < tokens.size() && tokens.get(i + 1).getType() == EsqlBaseLexer.DOT
+                       && isName(tokens.get(i + 2).getType())) {
+                    name.append('.').append(name(tokens.get(i + 2)));
+                    i += 2;
+                }
+                int next = i + 1 < tokens.size() ? tokens.get(i + 1).getType() : Token.EOF;
+                int previous = i - 1 >= 0 ? tokens.get(i - 1).getType() : Token.INVALID_TYPE;
+                if (next == EsqlBaseLexer.LP) {
+                    continue;
+                }
+                if (next == EsqlBaseLexer.ASSIGN || previous == EsqlBaseLexer.AS) {
+                    defined.add(name.toString());
+                } else if (!defined.contains(name.toString())) {
+                    fields.add(name.toString());
+                }
+            }
+        }
+        return new EsqlQueryOutline(new ArrayList<>(indices), new ArrayList<>(fields));
+    }
+
+    /**
+     * Adds the comma separated index patterns starting at the given token, cluster:index and index::selector
+     * included, and returns the index of the first token after them.
+     */
+    static int indexPatterns(List<? extends Token> tokens, int from, Collection<String> indices) {
+        StringBuilder source = new StringBuilder();
+        int i = from;
+        for (; i < tokens.size(); i++) {
+            int type = tokens.get(i).getType();
+            if (type == EsqlBaseLexer.UNQUOTED_SOURCE || type == EsqlBaseLexer.COLON
+                || type == EsqlBaseLexer.CAST_OP) {
+                source.append(tokens.get(i).getText());
+                continue;
+            }
+            if (type == EsqlBaseLexer.QUOTED_STRING) {
+                source.append(unquote(tokens.get(i).getText()));
+                continue;
+            }
+            if (type != EsqlBaseLexer.COMMA) {
+                break;
+            }
+            if (!source.isEmpty()) {
+                indices.add(source.toString());
+            }
+            source.setLength(0);
+        }
+        if (!source.isEmpty()) {
+            indices.add(source.toString());
+        }
+        return i;
+    }
+
+    static boolean isName(int type) {
+        return type == EsqlBaseLexer.UNQUOTED_IDENTIFIER || type == EsqlBaseLexer.QUOTED_IDENTIFIER
+               || type == EsqlBaseLexer.ID_PATTERN;
+    }
+
+    static String name(Token token) {
+        String text = token.getText();
+        if (token.getType() == EsqlBaseLexer.QUOTED_IDENTIFIER) {
+            return text.substring(1, text.length() - 1).replace("``", "`");
+        }
+        return text;
+    }
+
+    private static String unquote(String text) {
+        if (text.startsWith("\"\"\"") && text.endsWith("\"\"\"") && text.length() >= 6) {
+            return text.substring(3, text.length() - 3);
+        }
+        if (text.startsWith("\"") && text.endsWith("\"") && text.length() >= 2) {
+            return text.substring(1, text.length() - 1);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import java.util.Locale;
+
+/**
+ * An ES|QL query found in a source file, see {@link EsqlSourceScanner}.
+ */
+public final class EsqlSourceQuery {
+
+    public enum Kind {
+        // Java text block
+        JAVA,
+        // Kotlin raw string
+        KOTLIN,
+        // the whole file is the query
+        PLAIN;
+
+        /**
+         * How the queries of a file with the given extension are written, null for files without queries.
+         */
+        public static Kind ofExtension(String extension) {
+            if (extension == null) {
+                return null;
+            }
+            return switch (extension.toLowerCase(Locale.ROOT)) {
+                case "java" -> JAVA;
+                case "kt", "kts" -> KOTLIN;
+                case "esql" -> PLAIN;
+                default -> null;
+            };
+        }
+    }
+
+    public final Kind kind;
+    // range of the literal in the file, including quotes
+    public final int literalStart;
+    public final int literalEnd;
+    // range of the query in the file, without quotes and surrounding whitespace
+    public final int start;
+    public final int end;
+
+    public EsqlSourceQuery(Kind kind, int literalStart, int literalEnd, int start, int end) {
+        this.kind = kind;
+        this.literalStart = literalStart;
+        this.literalEnd = literalEnd;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public String toString() {
+        return kind + "[" + start + ", " + end + "]";
+    }
+}
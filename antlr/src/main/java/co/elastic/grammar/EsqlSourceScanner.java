@@ -0,0 +1,110 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the ES|QL queries of a source file in its text, without a PSI tree: the triple quoted literals starting on
+ * a line marked by a "// ES|QL" comment, following the same rules as the editor (see {@link EsqlMarkedLines}).
+ * Used where parsing the file isn't possible or would be too slow, like indexing and command line validation.
+ */
+public final class EsqlSourceScanner {
+
+    private static final String QUOTES = "\"\"\"";
+
+    private EsqlSourceScanner() {}
+
+    public static List<EsqlSourceQuery> scan(CharSequence text, EsqlSourceQuery.Kind kind) {
+        List<EsqlSourceQuery> queries = new ArrayList<>();
+        if (kind == EsqlSourceQuery.Kind.PLAIN) {
+            addQuery(queries, kind, text, 0, 0, text.length(), text.length());
+            return queries;
+        }
+
+        EsqlMarkedLines markedLines = EsqlMarkedLines.of(text);
+        boolean kotlin = kind == EsqlSourceQuery.Kind.KOTLIN;
+        int line = 0;
+        int lineStart = 0;
+        while (lineStart < text.length()) {
+            int lineEnd = indexOf(text, "\n", lineStart, text.length());
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            if (markedLines.isMarked(line, kotlin)) {
+                int open = indexOf(text, QUOTES, lineStart, lineEnd);
+                int close = open < 0 ? -1 : closingQuotes(text, open + QUOTES.length(), kotlin);
+                if (close >= 0) {
+                    addQuery(queries, kind, text, open, open + QUOTES.length(), close, close + QUOTES.length());
+                    // the literal may span several lines, carry on after it
+                    while (lineEnd < close) {
+                        line++;
+                        lineEnd = indexOf(text, "\n", lineEnd + 1, text.length());
+                        if (lineEnd < 0) {
+                            lineEnd = text.length();
+                        }
+                    }
+                }
+            }
+            line++;
+            lineStart = lineEnd + 1;
+        }
+        return queries;
+    }
+
+    private static int closingQuotes(CharSequence text, int from, boolean kotlin) {
+        int close = from;
+        while ((close = indexOf(text, QUOTES, close, text.length())) >= 0) {
+            if (kotlin) {
+                // raw strings can end with more quotes, the last three close the literal
+                while (close + QUOTES.length() < text.length() && text.charAt(close + QUOTES.length()) == '"') {
+                    close++;
+                }
+                return close;
+            }
+            // text blocks can contain escaped quotes
+            int backslashes = 0;
+            while (close - backslashes - 1 >= from && text.charAt(close - backslashes - 1) == '\\') {
+                backslashes++;
+            }
+            if (backslashes % 2 == 0) {
+                return close;
+            }
+            close++;
+        }
+        return -1;
+    }
+
+    // trimmed like the annotator does
+    private static void addQuery(List<EsqlSourceQuery> queries, EsqlSourceQuery.Kind kind, CharSequence text,
+                                 int literalStart, int start, int end, int literalEnd) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end) {
+            queries.add(new EsqlSourceQuery(kind, literalStart, literalEnd, start, end));
+        }
+    }
+
+    private static int indexOf(CharSequence text, String part, int from, int to) {
+        for (int i = from; i <= to - part.length(); i++) {
+            boolean found = true;
+            for (int j = 0; j < part.length() && found; j++) {
+                found = text.charAt(i + j) == part.charAt(j);
+            }
+            if (found) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+
+package co.elastic.grammar;
+
+/**
+ * Token type lookups over the lexer vocabulary, backed by tables indexed by token type.
+ */
+public final class EsqlTokens {
+
+    private static final boolean[] SOURCE_COMMANDS = table(
+        EsqlBaseLexer.FROM,
+        EsqlBaseLexer.ROW,
+        EsqlBaseLexer.SHOW,
+        EsqlBaseLexer.DEV_TIME_SERIES,
+        EsqlBaseLexer.DEV_EXPLAIN
+    );
+
+    private static final boolean[] PROCESSING_COMMANDS = table(
+        EsqlBaseLexer.CHANGE_POINT,
+        EsqlBaseLexer.COMPLETION,
+        EsqlBaseLexer.DISSECT,
+        EsqlBaseLexer.DROP,
+        EsqlBaseLexer.ENRICH,
+        EsqlBaseLexer.EVAL,
+        EsqlBaseLexer.FORK,
+        EsqlBaseLexer.GROK,
+        EsqlBaseLexer.JOIN_LOOKUP,
+        EsqlBaseLexer.KEEP,
+        EsqlBaseLexer.LIMIT,
+        EsqlBaseLexer.MV_EXPAND,
+        EsqlBaseLexer.RENAME,
+        EsqlBaseLexer.SAMPLE,
+        EsqlBaseLexer.SORT,
+        EsqlBaseLexer.STATS,
+        EsqlBaseLexer.WHERE,
+        EsqlBaseLexer.DEV_FUSE,
+        EsqlBaseLexer.DEV_INLINESTATS,
+        EsqlBaseLexer.DEV_INSIST,
+        EsqlBaseLexer.DEV_JOIN_FULL,
+        EsqlBaseLexer.DEV_JOIN_LEFT,
+        EsqlBaseLexer.DEV_JOIN_RIGHT,
+        EsqlBaseLexer.DEV_LOOKUP,
+        EsqlBaseLexer.DEV_RERANK
+    );
+
+    private EsqlTokens() {}
+
+    /**
+     * Tokens a query starts with (FROM, ROW, ...).
+     */
+    public static boolean isSourceCommand(int tokenType) {
+        return lookup(SOURCE_COMMANDS, tokenType);
+    }
+
+    /**
+     * Tokens a command after a pipe starts with (WHERE, STATS, the LOOKUP of LOOKUP JOIN, ...).
+     */
+    public static boolean isProcessingCommand(int tokenType) {
+        return lookup(PROCESSING_COMMANDS, tokenType);
+    }
+
+    public static boolean isCommand(int tokenType) {
+        return isSourceCommand(tokenType) || isProcessingCommand(tokenType);
+    }
+
+    private static boolean lookup(boolean[] table, int tokenType) {
+        return tokenType >= 0 && tokenType < table.length && table[tokenType];
+    }
+
+    private static boolean[] table(int... tokenTypes) {
+        boolean[] table = new boolean[EsqlBaseLexer.VOCABULARY.getMaxTokenType() + 1];
+        for (int tokenType : tokenTypes) {
+            table[tokenType] = true;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+package co.elastic.grammar.lint;
+
+/**
+ * A syntax error in a query, located in the file containing the query.
+ */
+public final class EsqlDiagnostic {
+
+    // path as given on the command line, with forward slashes
+    public final String file;
+    // 1-based
+    public final int line;
+    public final int column;
+    // offsets in the file
+    public final int start;
+    public final int end;
+    public final String message;
+
+    public EsqlDiagnostic(String file, int line, int column, int start, int end, String message) {
+        this.file = file;
+        this.line = line;
+        this.column = column;
+        this.start = start;
+        this.end = end;
+        this.message = message;
+    }
+
+    @Override
+    public String toString() {
+        return file + ":" + line + ":" + column + ": " + message;
+    }
+}
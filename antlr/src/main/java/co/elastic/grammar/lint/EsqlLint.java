@@ -0,0 +1,297 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+package co.elastic.grammar.lint;
+
+import co.elastic.grammar.CharSequenceCharStream;
+import co.elastic.grammar.EsqlConfig;
+import co.elastic.grammar.EsqlMarkedLines;
+import co.elastic.grammar.EsqlParserSession;
+import co.elastic.grammar.EsqlSourceQuery;
+import co.elastic.grammar.EsqlSourceScanner;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Validates the ES|QL queries of a source tree without an IDE: the "// ES|QL" marked Java text blocks and Kotlin
+ * raw strings, and the .esql files, found with the same rules as the plugin and parsed with the same grammar.
+ * Files are validated concurrently, each thread reusing its own lexer and parser.
+ * <pre>
+ * esql-lint [--format text|json|sarif] [--output file] [--threads n] [--release] path...
+ * </pre>
+ * The diagnostics go to the standard output or the given file, and a summary with the throughput to the standard
+ * error. Exits with 1 if any query has an error, and 2 if the arguments are wrong.
+ */
+public final class EsqlLint {
+
+    private static final String USAGE =
+        "usage: esql-lint [--format text|json|sarif] [--output file] [--threads n] [--release] path...";
+
+    // build outputs and dependencies, never worth scanning
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of("build", "target", "out", "node_modules");
+
+    /**
+     * What a run found.
+     */
+    public static final class Result {
+        public final int files;
+        public final int queries;
+        public final List<EsqlDiagnostic> diagnostics;
+        public final long nanos;
+
+        Result(int files, int queries, List<EsqlDiagnostic> diagnostics, long nanos) {
+            this.files = files;
+            this.queries = queries;
+            this.diagnostics = List.copyOf(diagnostics);
+            this.nanos = nanos;
+        }
+    }
+
+    private static final class FileResult {
+        final int queries;
+        final List<EsqlDiagnostic> diagnostics;
+
+        FileResult(int queries, List<EsqlDiagnostic> diagnostics) {
+            this.queries = queries;
+            this.diagnostics = diagnostics;
+        }
+    }
+
+    private EsqlLint() {}
+
+    public static void main(String[] args) throws IOException {
+        EsqlLintFormat format = EsqlLintFormat.TEXT;
+        Path output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        EsqlConfig config = new EsqlConfig();
+        config.setDevVersion(true);
+        List<Path> roots = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--format" -> format = EsqlLintFormat.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    case "--output" -> output = Paths.get(args[++i]);
+                    case "--threads" -> threads = Integer.parseInt(args[++i]);
+                    case "--release" -> config.setDevVersion(false);
+                    case "--help", "-h" -> {
+                        System.out.println(USAGE);
+                        return;
+                    }
+                    default -> {
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("unknown option " + args[i]);
+                        }
+                        roots.add(Paths.get(args[i]));
+                    }
+                }
+            }
+            if (roots.isEmpty() || threads < 1) {
+                throw new IllegalArgumentException("no path given");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Result result = lint(roots, config, threads);
+
+        try (Writer out = output == null
+            ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+            : Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            format.write(result.diagnostics, out);
+        }
+        double seconds = result.nanos / 1_000_000_000.0;
+        System.err.printf(Locale.ROOT, "esql-lint: %d queries in %d files, %d errors, %.0f ms (%.0f queries/s, %d threads)%n",
+            result.queries, result.files, result.diagnostics.size(), seconds * 1000,
+            seconds > 0 ? result.queries / seconds : 0, threads);
+        if (!result.diagnostics.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Validates the queries of all the files under the given paths, on the given number of threads.
+     * Diagnostics are sorted by file, then by position.
+     */
+    public static Result lint(List<Path> roots, EsqlConfig config, int threads) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path root : roots) {
+            collect(root, files);
+        }
+        files.sort(null);
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<FileResult>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(() -> lint(file, config));
+            }
+            int queries = 0;
+            List<EsqlDiagnostic> diagnostics = new ArrayList<>();
+            for (Future<FileResult> future : executor.invokeAll(tasks)) {
+                FileResult fileResult = future.get();
+                queries += fileResult.queries;
+                diagnostics.addAll(fileResult.diagnostics);
+            }
+            return new Result(files.size(), queries, diagnostics, System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void collect(Path root, List<Path> files) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+                if (!dir.equals(root) && (name.startsWith(".") || SKIPPED_DIRECTORIES.contains(name))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && kind(file) != null) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static EsqlSourceQuery.Kind kind(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : EsqlSourceQuery.Kind.ofExtension(name.substring(dot + 1));
+    }
+
+    private static FileResult lint(Path file, EsqlConfig config) {
+        String name = file.toString().replace('\\', '/');
+        String text;
+        try {
+            // malformed input is replaced rather than rejected, like an editor would show it
+            text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new FileResult(0, List.of(new EsqlDiagnostic(name, 1, 1, 0, 0, "cannot read file: " + e)));
+        }
+        return lint(name, text, kind(file), config);
+    }
+
+    /**
+     * Validates the queries of a single file.
+     *
+     * @param name - Name of the file in the diagnostics
+     * @param text - Content of the file
+     * @param kind - How the queries are written in the file
+     */
+    static FileResult lint(String name, CharSequence text, EsqlSourceQuery.Kind kind, EsqlConfig config) {
+        // most sources have no ES|QL at all
+        if (kind != EsqlSourceQuery.Kind.PLAIN && text.toString().indexOf(EsqlMarkedLines.MARKER) < 0) {
+            return new FileResult(0, List.of());
+        }
+        List<EsqlSourceQuery> queries = EsqlSourceScanner.scan(text, kind);
+        List<EsqlDiagnostic> diagnostics = new ArrayList<>();
+        int[] lineStarts = null;
+        for (EsqlSourceQuery query : queries) {
+            List<int[]> ranges = new ArrayList<>();
+            List<String> messages = new ArrayList<>();
+            try (EsqlParserSession session = EsqlParserSession.acquire(
+                new CharSequenceCharStream(text, query.start, query.end), config)) {
+                session.parser().setBuildParseTree(false);
+                session.addErrorListener(new BaseErrorListener() {
+                    @Override
+                    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                            int charPositionInLine, String msg, RecognitionException e) {
+                        ranges.add(range(text, query, offendingSymbol, line, charPositionInLine));
+                        messages.add(msg);
+                    }
+                });
+                session.singleStatement();
+            } catch (RuntimeException e) {
+                // the lexer can fail on some invalid input, the rest of the files are still validated
+                ranges.add(new int[]{query.start, query.end});
+                messages.add("cannot parse the query: " + e);
+            }
+            if (!ranges.isEmpty() && lineStarts == null) {
+                lineStarts = lineStarts(text);
+            }
+            for (int i = 0; i < ranges.size(); i++) {
+                int[] range = ranges.get(i);
+                int line = Arrays.binarySearch(lineStarts, range[0]);
+                if (line < 0) {
+                    line = -line - 2;
+                }
+                diagnostics.add(new EsqlDiagnostic(name, line + 1, range[0] - lineStarts[line] + 1,
+                    range[0], range[1], messages.get(i)));
+            }
+        }
+        return new FileResult(queries.size(), diagnostics);
+    }
+
+    // offsets in the file of the error, the lines reported by the parser are relative to the query
+    private static int[] range(CharSequence text, EsqlSourceQuery query, Object offendingSymbol, int line,
+                               int charPositionInLine) {
+        if (offendingSymbol instanceof Token token && token.getStartIndex() >= 0) {
+            int start = query.start + token.getStartIndex();
+            int end = token.getType() == Token.EOF ? start : query.start + token.getStopIndex() + 1;
+            return new int[]{start, Math.max(start, end)};
+        }
+        int start = query.start;
+        for (int current = 1; current < line && start < query.end; start++) {
+            if (text.charAt(start) == '\n') {
+                current++;
+            }
+        }
+        start = Math.min(start + charPositionInLine, query.end);
+        return new int[]{start, Math.min(start + 1, query.end)};
+    }
+
+    private static int[] lineStarts(CharSequence text) {
+        int[] starts = new int[16];
+        int count = 0;
+        starts[count++] = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i + 1;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright Elasticsearch B.V. and/or licensed to Elasticsearch B.V. under one
+ * or more contributor license agreements. Licensed under the Elastic License
+ * 2.0; you may not use this file except in compliance with the Elastic License
+ * 2.0.
+ */
+package co.elastic.grammar.lint;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Output formats of {@link EsqlLint}.
+ */
+public enum EsqlLintFormat {
+
+    // file:line:column: message, one per line
+    TEXT {
+        @Override
+        public void write(List<EsqlDiagnostic> diagnostics, Appendable out) throws IOException {
+            for (EsqlDiagnostic diagnostic : diagnostics) {
+                out.append(diagnostic.toString()).append('\n');
+            }
+        }
+    },
+
+    // array of {file, line, column, start, end, message}
+    JSON {
+        @Override
+        public void write(List<EsqlDiagnostic> diagnostics, Appendable out) throws IOException {
+            out.append('[');
+            for (int i = 0; i < diagnostics.size(); i++) {
+                EsqlDiagnostic diagnostic = diagnostics.get(i);
+                out.append(i == 0 ? "\n  " : ",\n  ");
+                out.append("{\"file\": ");
+                string(out, diagnostic.file);
+                out.append(", \"line\": ").append(String.valueOf(diagnostic.line));
+                out.append(", \"column\": ").append(String.valueOf(diagnostic.column));
+                out.append(", \"start\": ").append(String.valueOf(diagnostic.start));
+                out.append(", \"end\": ").append(String.valueOf(diagnostic.end));
+                out.append(", \"message\": ");
+                string(out, diagnostic.message);
+                out.append('}');
+            }
+            out.append(diagnostics.isEmpty() ? "]\n" : "\n]\n");
+        }
+    },
+
+    // SARIF 2.1.0 log with a single run, understood by code scanning tools
+    SARIF {
+        @Override
+        public void write(List<EsqlDiagnostic> diagnostics, Appendable out) throws IOException {
+            out.append("{\n");
+            out.append("  \"$schema\": \"https://json.schemastore.org/sarif-2.1.0.json\",\n");
+            out.append("  \"version\": \"2.1.0\",\n");
+            out.append("  \"runs\": [{\n");
+            out.append("    \"tool\": {\"driver\": {\"name\": \"esql-lint\", \"rules\": [{\"id\": \"")
+                .append(RULE_ID).append("\", \"shortDescription\": {\"text\": \"ES|QL syntax error\"}}]}},\n");
+            out.append("    \"results\": [");
+            for (int i = 0; i < diagnostics.size(); i++) {
+                EsqlDiagnostic diagnostic = diagnostics.get(i);
+                out.append(i == 0 ? "\n      " : ",\n      ");
+                out.append("{\"ruleId\": \"").append(RULE_ID).append("\", \"level\": \"error\", \"message\": {\"text\": ");
+                string(out, diagnostic.message);
+                out.append("}, \"locations\": [{\"physicalLocation\": {\"artifactLocation\": {\"uri\": ");
+                string(out, diagnostic.file);
+                out.append("}, \"region\": {\"startLine\": ").append(String.valueOf(diagnostic.line));
+                out.append(", \"startColumn\": ").append(String.valueOf(diagnostic.column));
+                out.append(", \"charOffset\": ").append(String.valueOf(diagnostic.start));
+                out.append(", \"charLength\": ").append(String.valueOf(diagnostic.end - diagnostic.start));
+                out.append("}}}]}");
+            }
+            out.append(diagnostics.isEmpty() ? "]\n" : "\n    ]\n");
+            out.append("  }]\n");
+            out.append("}\n");
+        }
+    };
+
+    private static final String RULE_ID = "esql-syntax";
+
+    public abstract void write(List<EsqlDiagnostic> diagnostics, Appendable out) throws IOException;
+
+    // JSON string literal
+    private static void string(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < ' ') {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
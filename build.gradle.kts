@@ -89,6 +89,14 @@ kotlin {
     }
 }
 
+tasks.register<JavaExec>("benchmark") {
+    description = "Runs the ES|QL micro benchmarks, -Pbenchmark=<name> runs a single one"
+    group = "verification"
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("co.elastic.grammar.benchmark.EsqlBenchmarks")
+    args(providers.gradleProperty("benchmark").getOrElse("all"))
+}
+
 tasks.register("downloadDocs") {
     doLast {
         val url = "https://www.elastic.co/docs/llm.zip"
@@ -184,6 +192,10 @@ public final class EsqlDocsMap {
         }
         return null;
     }
+
+    public static @Nullable String getRawDoc(String command) {
+        return rawDocs.get(command);
+    }
 }
         """.trimIndent()
         File(path).printWriter().use { out ->
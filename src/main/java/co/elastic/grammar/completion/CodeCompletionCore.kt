@@ -29,12 +29,15 @@
 
 package co.elastic.grammar.completion
 
+import co.elastic.grammar.CharSequenceCharStream
+import co.elastic.grammar.ParserConfig
 import org.antlr.v4.runtime.*
 import org.antlr.v4.runtime.atn.*
 import org.antlr.v4.runtime.misc.IntervalSet
-import java.io.ByteArrayInputStream
-import java.nio.charset.Charset
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.collections.HashSet
 import kotlin.collections.iterator
 
@@ -72,6 +75,15 @@ class CandidatesCollection {
         this.tokensContext.clear()
     }
 
+    // a copy that doesn't share any of the maps and lists with this collection
+    fun copy(): CandidatesCollection {
+        val copy = CandidatesCollection()
+        for ((key, value) in this.tokens) copy.tokens[key] = value.toMutableList()
+        for ((key, value) in this.rules) copy.rules[key] = value.toMutableList()
+        for ((key, value) in this.tokensContext) copy.tokensContext[key] = value.toList()
+        return copy
+    }
+
     fun show(ruleNames: Array<String>, vocabulary: Vocabulary) {
         println("\n\nCollected rules:\n")
         for ((key, value) in this.rules) {
@@ -99,16 +111,100 @@ class CandidatesCollection {
 
 }
 
+// A bounded LRU cache of the candidates found for a sequence of token types, so that completing again at a
+// structurally identical position (same tokens before the caret, whatever the identifiers and literals) is a lookup
+// instead of an ATN walk. Entries are keyed by the grammar variant, the start rule and the token types, so a cache
+// must only be shared by instances with the same ignored tokens and preferred rules. It's safe to share between threads.
+class CandidatesCache(maxSize: Int) {
+
+    private val entries = object : LinkedHashMap<CandidatesKey, CandidatesCollection>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<CandidatesKey, CandidatesCollection>?): Boolean {
+            return size > this@CandidatesCache.maxSize
+        }
+    }
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    // 0 disables the cache, lowering it drops the least recently used entries
+    @Volatile
+    var maxSize: Int = maxSize
+        set(value) {
+            require(value >= 0) { "maxSize must not be negative: $value" }
+            field = value
+            synchronized(entries) {
+                val iterator = entries.entries.iterator()
+                while (entries.size > value && iterator.hasNext()) {
+                    iterator.next()
+                    iterator.remove()
+                }
+            }
+        }
+
+    val hitCount get() = hits.get()
+
+    val missCount get() = misses.get()
+
+    val hitRatio: Double
+        get() {
+            val lookups = hitCount + missCount
+            return if (lookups == 0L) 0.0 else hitCount.toDouble() / lookups
+        }
+
+    val size get() = synchronized(entries) { entries.size }
+
+    // returns a copy of the cached candidates, or collects them with the given function and caches a copy
+    internal fun computeIfAbsent(key: CandidatesKey, collect: () -> CandidatesCollection): CandidatesCollection {
+        if (maxSize == 0) {
+            return collect()
+        }
+        val cached = synchronized(entries) { entries[key] }
+        if (cached != null) {
+            hits.incrementAndGet()
+            return cached.copy()
+        }
+        misses.incrementAndGet()
+        // collected outside the lock, so concurrent misses don't wait on each other
+        val candidates = collect()
+        val copy = candidates.copy()
+        synchronized(entries) {
+            entries[key] = copy
+        }
+        return candidates
+    }
+
+    fun clear() {
+        synchronized(entries) {
+            entries.clear()
+        }
+    }
+
+    override fun toString(): String {
+        return "CandidatesCache(size=$size, maxSize=$maxSize, hits=$hitCount, misses=$missCount)"
+    }
+}
+
+internal class CandidatesKey(val grammar: String, val startRule: Int, val invokingState: Int, val tokens: IntArray) {
+
+    // computed once, a lookup hashes the token types a single time
+    private val hash = 31 * (31 * (31 * grammar.hashCode() + startRule) + invokingState) + tokens.contentHashCode()
+
+    override fun hashCode() = hash
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is CandidatesKey) return false
+        return hash == other.hash && startRule == other.startRule && invokingState == other.invokingState &&
+            grammar == other.grammar && tokens.contentEquals(other.tokens)
+    }
+}
+
 // A record for a follow set along with the path at which this set was found.
 // If there is only a single symbol in the interval set then we also collect and store tokens which follow
 // this symbol directly in its rule (i.e. there is no intermediate rule transition). Only single label transitions
 // are considered. This is useful if you have a chain of tokens which can be suggested as a whole, because there is
 // a fixed sequence in the grammar.
 
-private class FollowSetWithPath {
-    var intervals : IntervalSet? = null
-    var path : RuleList = LinkedList()
-    var following : TokenList = LinkedList()
+private class FollowSetWithPath(val intervals: IntervalSet, val path: List<RuleIndex>, val following: List<TokenKind> = emptyList()) {
 
     override fun toString(): String {
         return "FollowSetWithPath(intervals=$intervals, path=$path, following=$following)"
@@ -118,10 +214,9 @@ private class FollowSetWithPath {
 
 // A list of follow sets (for a given state number) + all of them combined for quick hit tests.
 // This data is static in nature (because the used ATN states are part of a static struct: the ATN).
-// Hence it can be shared between all C3 instances, however it dependes on the actual parser class (type).
-private class FollowSetsHolder {
-    var sets : MutableList<FollowSetWithPath> = LinkedList()
-    var combined : IntervalSet? = null
+// Hence it can be shared between all C3 instances, however it dependes on the actual parser class (type)
+// and on how its predicates evaluate. It's never modified once computed, so it's safe to share between threads.
+private class FollowSetsHolder(val sets: List<FollowSetWithPath>, val combined: IntervalSet) {
 
     override fun toString(): String {
         return "FollowSetsHolder(sets=$sets, combined=$combined)"
@@ -129,14 +224,57 @@ private class FollowSetsHolder {
 
 }
 
-private typealias FollowSetsPerState = MutableMap<Int, FollowSetsHolder>
+private typealias FollowSetsPerState = ConcurrentMap<Int, FollowSetsHolder>
 
 // Token stream position info after a rule was processed.
 private typealias RuleEndStatus = MutableSet<Int>
 
-private data class PipelineEntry(val state: ATNState, val tokenIndex: Int, val callStack: MutableList<Int>, val transitions: List<Transition> = emptyList()) {
-    fun  updatedCallStack(): ParserStack {
-        return this.callStack.toList() + transitions.filter { it.target.stateType == ATNState.RULE_START }.map { it.target.ruleIndex }
+// An immutable stack of rule indexes, sharing everything below its top with the stack it was pushed onto.
+// Pushing is a single allocation, so every pipeline entry can hold its own stack without copying, and the hash
+// is computed once so that entries can go into hash sets.
+private class RuleStack private constructor(val rule: RuleIndex, val parent: RuleStack?, val size: Int, private val hash: Int) {
+
+    fun push(rule: RuleIndex) = RuleStack(rule, this, size + 1, 31 * hash + rule)
+
+    // bottom first
+    fun toList(): MutableList<RuleIndex> {
+        val rules = IntArray(size)
+        var node: RuleStack = this
+        for (i in size - 1 downTo 0) {
+            rules[i] = node.rule
+            node = node.parent!!
+        }
+        return rules.toMutableList()
+    }
+
+    override fun hashCode() = hash
+
+    override fun equals(other: Any?): Boolean {
+        var a: RuleStack? = this
+        var b: RuleStack? = other as? RuleStack ?: return false
+        while (a !== b) {
+            if (a == null || b == null || a.size != b.size || a.hash != b.hash || a.rule != b.rule) {
+                return false
+            }
+            a = a.parent
+            b = b.parent
+        }
+        return true
+    }
+
+    override fun toString() = toList().toString()
+
+    companion object {
+        val EMPTY = RuleStack(-1, null, 0, 1)
+    }
+}
+
+// A state to process in the current rule, at a token index, with the rules that were called from the current rule
+// on the way there (they are part of the parser stack recorded with a candidate). All the entries of a rule share
+// its call stack, which isn't part of the entry.
+private data class PipelineEntry(val state: ATNState, val tokenIndex: Int, val calledRules: RuleStack = RuleStack.EMPTY) {
+    fun updatedCallStack(callStack: RuleStack): ParserStack {
+        return callStack.toList() + calledRules.toList()
     }
 }
 
@@ -144,6 +282,7 @@ interface TokensProvider {
     fun tokens() : TokenList
     fun tokensStartIndex() : Int
     fun startRuleIndex() : Int
+    fun startContext() : ParserRuleContext? = null
 }
 
 class ByListTokenProvider(val tokens: List<TokenKind>,
@@ -156,6 +295,8 @@ class ByListTokenProvider(val tokens: List<TokenKind>,
 
     override fun startRuleIndex() = context?.ruleIndex ?: 0
 
+    override fun startContext() = context
+
 }
 
 class ByStreamTokenProvider(val tokenStream: TokenStream,
@@ -166,34 +307,32 @@ class ByStreamTokenProvider(val tokenStream: TokenStream,
     override fun tokens(): TokenList {
         val tokenStartIndex = tokensStartIndex()
         tokenStream.seek(tokenStartIndex)
-        val tokens = LinkedList<Int>()
-        var offset = 1
-        var exit = false
-        while (!exit) {
-            val token = tokenStream.LT(offset++)
+        val tokens = ArrayList<Int>()
+        // moving along the stream, LT(k) would skip the hidden tokens of the k - 1 previous ones again
+        while (true) {
+            val token = tokenStream.LT(1)
             tokens.add(token.type)
             if (token.tokenIndex >= caretTokenIndex || token.type == Token.EOF) {
-                exit = true
+                break
             }
+            tokenStream.consume()
         }
-        val currentIndex = tokenStream.index()
-        if (currentIndex == -1) {
-            throw RuntimeException("CurrentIndex should be not -1")
-        }
-        tokenStream.seek(currentIndex)
+        tokenStream.seek(tokenStartIndex)
         return tokens
     }
 
     override fun startRuleIndex() = context?.ruleIndex ?: 0
 
+    override fun startContext() = context
+
 }
 
-class ByParserClassTokenProvider<L: Lexer, P: Parser>(val lexerClass: Class<L>, val parserClass: Class<P>, val code: String) : TokensProvider {
+class ByParserClassTokenProvider<L: Lexer, P: Parser>(val lexerClass: Class<L>, val parserClass: Class<P>, val code: CharSequence) : TokensProvider {
     override fun tokens(): TokenList {
         val lexerConstructor = lexerClass.constructors.find { it.parameterCount == 1 && it.parameterTypes[0] == CharStream::class.java }!!
-        val charStream = ANTLRInputStream(ByteArrayInputStream(code.toByteArray(Charset.defaultCharset())))
+        val charStream = CharSequenceCharStream(code)
         val lexer = lexerConstructor.newInstance(charStream) as Lexer
-        val tokens = LinkedList<Int>()
+        val tokens = ArrayList<Int>()
         val tokenStream = CommonTokenStream(lexer)
         var offset = 1
         var exit = false
@@ -240,17 +379,31 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
     private val preferredRules = HashSet<Int>()       // Rules which replace any candidate token they contain.
     // This allows to return descriptive rules (e.g. className, instead of ID/identifier).
 
-    private var tokens : TokenList = LinkedList()
+    // Called for every state taken from the pipeline, throws to abandon the walk when the result isn't needed anymore.
+    var cancellationCheck: () -> Unit = {}
+
+    // Candidates already collected for the same token types, looked up before walking the ATN.
+    var candidatesCache: CandidatesCache? = null
+
+    private var tokens = IntArray(0)
     private var statesProcessed = 0 // Used only for debugging
     private var tokensProvider: TokensProvider? = null
 
     // A mapping of rule index + token stream position to end token positions.
     // A rule which has been visited before with the same input position will always produce the same output positions.
-    private val shortcutMap : MutableMap<Int, MutableMap<Int, RuleEndStatus>> = HashMap()
+    // Indexed by rule.
+    private val shortcutMap = arrayOfNulls<MutableMap<Int, RuleEndStatus>>(atn.ruleToStartState.size)
     private val candidates = CandidatesCollection()
 
+    // Follow sets depend on the predicates along the way, so they're cached per grammar variant.
+    private val followSetsKey = when (predicatesEvaluator) {
+        is ParserConfig -> languageName + if (predicatesEvaluator.isDevVersion) "/dev" else "/release"
+        else -> languageName
+    }
+
     companion object {
-        private val followSetsByATN: MutableMap<String, FollowSetsPerState> = HashMap()
+        // filled from whichever thread runs a completion first
+        private val followSetsByATN: ConcurrentMap<String, FollowSetsPerState> = ConcurrentHashMap()
 
         fun fromParser(parser: Parser) = CodeCompletionCore(parser.atn, parser.vocabulary, parser.ruleNames, parser.javaClass.simpleName, parser)
 
@@ -262,6 +415,17 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
         }
     }
 
+    /**
+     * Computes the follow sets of all the rules up front, so that no completion has to walk the ATN for them.
+     * They're kept for the lifetime of the class, shared with every instance for the same parser and grammar variant.
+     */
+    fun precomputeFollowSets() {
+        for (startState in this.atn.ruleToStartState) {
+            this.cancellationCheck()
+            followSets(startState)
+        }
+    }
+
     fun collectCandidates(tokenStream: TokenStream, caretTokenIndex: Int, context: ParserRuleContext? = null): CandidatesCollection {
         return collectCandidates(ByStreamTokenProvider(tokenStream, caretTokenIndex, context))
     }
@@ -274,15 +438,35 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
      */
     fun collectCandidates(tokensProvider: TokensProvider): CandidatesCollection {
         this.tokensProvider = tokensProvider
-        this.shortcutMap.clear()
+        this.shortcutMap.fill(null)
         this.candidates.clear()
         this.statesProcessed = 0
 
-        this.tokens = tokensProvider.tokens()
+        this.tokens = tokensProvider.tokens().toIntArray()
 
-        val callStack: MutableList<Int> = LinkedList()
         val startRule = tokensProvider.startRuleIndex()
-        this.processRule(this.atn.ruleToStartState[startRule], 0, callStack.toMutableList(), "")
+        val cache = this.candidatesCache
+        if (cache != null && !this.showResult) {
+            val key = CandidatesKey(followSetsKey, startRule, tokensProvider.startContext()?.invokingState ?: -1, this.tokens)
+            return cache.computeIfAbsent(key) { walk(tokensProvider, startRule) }
+        }
+        return walk(tokensProvider, startRule)
+    }
+
+    private fun walk(tokensProvider: TokensProvider, startRule: Int): CandidatesCollection {
+        val endStatus = this.processRule(this.atn.ruleToStartState[startRule], 0, RuleStack.EMPTY, "")
+
+        // A walk limited to a context stops at the end of its rule. If the rule can end right at the caret,
+        // the tokens the invoking rules continue with are candidates as well.
+        val context = tokensProvider.startContext()
+        if (context != null && endStatus.contains(this.tokens.size - 1)) {
+            val following = this.atn.getExpectedTokens(this.atn.ruleToStopState[startRule].stateNumber, context)
+            for (symbol in following.toList()) {
+                if (!this.ignoredTokens.contains(symbol) && !this.candidates.tokens.contains(symbol)) {
+                    this.candidates.recordToken(symbol, LinkedList(), emptyList())
+                }
+            }
+        }
 
         if (this.showResult) {
             println("States processed: $statesProcessed")
@@ -407,10 +591,7 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
         seen.add(s)
 
         if (s == stopState || s.stateType == ATNState.RULE_STOP) {
-            val set = FollowSetWithPath()
-            set.intervals = IntervalSet.of(Token.EPSILON)
-            set.path = LinkedList(ruleStack)
-            followSets.add(set)
+            followSets.add(FollowSetWithPath(IntervalSet.of(Token.EPSILON), ArrayList(ruleStack)))
             return
         }
 
@@ -431,63 +612,40 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
             } else if (transition.isEpsilon) {
                 this.collectFollowSets(transition.target, stopState, followSets, seen, ruleStack);
             } else if (transition.serializationType == Transition.WILDCARD) {
-                val set = FollowSetWithPath()
-                set.intervals = IntervalSet.of(Token.MIN_USER_TOKEN_TYPE, this.atn.maxTokenType);
-                set.path = LinkedList(ruleStack)
-                followSets.add(set)
+                followSets.add(FollowSetWithPath(IntervalSet.of(Token.MIN_USER_TOKEN_TYPE, this.atn.maxTokenType), ArrayList(ruleStack)))
             } else {
                 var label = transition.label()
                 if (label.intervals.isNotEmpty()) {
                     if (transition.serializationType == Transition.NOT_SET) {
                         label = label.complement(IntervalSet.of(Token.MIN_USER_TOKEN_TYPE, this.atn.maxTokenType));
                     }
-                    val set = FollowSetWithPath()
-                    set.intervals = label;
-                    set.path = LinkedList(ruleStack)
-                    set.following = this.getFollowingTokens(transition)
-                    followSets.add(set)
+                    followSets.add(FollowSetWithPath(label, ArrayList(ruleStack), ArrayList(this.getFollowingTokens(transition))))
                 }
             }
         }
     }
 
     private fun setsPerState(): FollowSetsPerState {
-        var setsPerState = CodeCompletionCore.followSetsByATN[languageName]
-        if (setsPerState == null) {
-            setsPerState = HashMap()
-            followSetsByATN[languageName] = setsPerState
-        }
-        return setsPerState
+        return followSetsByATN.computeIfAbsent(followSetsKey) { ConcurrentHashMap() }
     }
 
     private fun followSets(startState: ATNState): FollowSetsHolder {
         val setsPerState = setsPerState()
-        var followSets = setsPerState[startState.stateNumber]
-        if (followSets == null) {
-            followSets = FollowSetsHolder()
-            setsPerState[startState.stateNumber] = followSets
-            val stop = this.atn.ruleToStopState[startState.ruleIndex]
-            followSets.sets = this.determineFollowSets(startState, stop)
-
-            // Sets are split by path to allow translating them to preferred rules. But for quick hit tests
-            // it is also useful to have a set with all symbols combined.
-            val combined = IntervalSet()
-            for (set in followSets.sets) {
-                combined.addAll(set.intervals)
-            }
-            followSets.combined = combined
-        }
-        return followSets
-    }
+        // computed outside of the map, two threads may both compute a missing entry but only one is kept
+        setsPerState[startState.stateNumber]?.let { return it }
 
-    private data class PathDescription(val initialState: ATNState, val transitions: List<ATNState> = emptyList()) {
-        fun follow(transition: Transition): PathDescription {
-            return PathDescription(initialState, transitions + listOf(transition.target))
-        }
+        val stop = this.atn.ruleToStopState[startState.ruleIndex]
+        val sets = this.determineFollowSets(startState, stop)
 
-        fun  followState(state: ATNState): PathDescription {
-            return PathDescription(initialState, transitions + listOf(state))
+        // Sets are split by path to allow translating them to preferred rules. But for quick hit tests
+        // it is also useful to have a set with all symbols combined.
+        val combined = IntervalSet()
+        for (set in sets) {
+            combined.addAll(set.intervals)
         }
+        combined.setReadonly(true)
+        return setsPerState.putIfAbsent(startState.stateNumber, FollowSetsHolder(sets, combined))
+            ?: setsPerState.getValue(startState.stateNumber)
     }
 
     /**
@@ -495,9 +653,7 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
      * The result can be empty in case we hit only non-epsilon transitions that didn't match the current input or if we
      * hit the caret position.
      */
-    private fun processRule(startState: ATNState, tokenIndex: Int, callStack: MutableList<Int>, _indentation: String,
-                            pathDescription: PathDescription = PathDescription(startState)) : RuleEndStatus {
-        //println("PROCESSRULE state=${startState} tokenIndex=$tokenIndex callStack=$callStack")
+    private fun processRule(startState: ATNState, tokenIndex: Int, callerStack: RuleStack, _indentation: String) : RuleEndStatus {
         var indentation : String = _indentation
         // Start with rule specific handling before going into the ATN walk.
 
@@ -507,11 +663,12 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
             positionMap = HashMap()
             this.shortcutMap[startState.ruleIndex] = positionMap
         } else {
-            if (positionMap.contains(tokenIndex)) {
+            val shortcut = positionMap[tokenIndex]
+            if (shortcut != null) {
                 if (this.showDebugOutput) {
                     println("=====> shortcut")
                 }
-                return positionMap[tokenIndex]!!
+                return shortcut
             }
         }
 
@@ -526,32 +683,32 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
         //    multiple times.
         val followSets = followSets(startState)
 
-        callStack.push(startState.ruleIndex)
+        // shared by all the entries of this rule and the rules it calls
+        val callStack = callerStack.push(startState.ruleIndex)
 
         var currentSymbol = this.tokens[tokenIndex]
 
         if (tokenIndex >= this.tokens.size - 1) { // At caret?
             if (this.preferredRules.contains(startState.ruleIndex)) {
                 // No need to go deeper when collecting entries and we reach a rule that we want to collect anyway.
-                this.translateToRuleIndex(callStack)
+                this.translateToRuleIndex(callStack.toList())
             } else {
                 // Convert all follow sets to either single symbols or their associated preferred rule and add
                 // the result to our candidates list.
+                val stack = callStack.toList()
                 for (set in followSets.sets) {
-                    val fullPath = LinkedList(callStack)
-                    fullPath.addAll(set.path)
-                    if (!this.translateToRuleIndex(fullPath)) {
-                        for (symbol in set.intervals!!.toList()) {
+                    if (this.preferredRules.isEmpty() || !this.translateToRuleIndex((stack + set.path).toMutableList())) {
+                        for (symbol in set.intervals.toList()) {
                             if (!this.ignoredTokens.contains(symbol)) {
                                 if (this.showDebugOutput) {
                                     println("=====> collected: ${this.vocabulary.getDisplayName(symbol)}")
                                 }
                                 if (!this.candidates.tokens.contains(symbol)) {
-                                    this.candidates.recordToken(symbol, set.following, callStack.toMutableList() + set.path) // Following is empty if there is more than one entry in the set.
+                                    this.candidates.recordToken(symbol, set.following.toMutableList(), stack + set.path) // Following is empty if there is more than one entry in the set.
                                 } else {
                                     // More than one following list for the same symbol.
                                     if (this.candidates.tokens[symbol] != set.following) {
-                                        this.candidates.recordToken(symbol, LinkedList(), callStack.toMutableList() + set.path)
+                                        this.candidates.recordToken(symbol, LinkedList(), stack + set.path)
                                     }
                                 }
                             }
@@ -560,57 +717,49 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
                 }
             }
 
-            callStack.pop()
-            //println("POPPING FROM CALLSTACK A $callStack")
             return result
 
         } else {
             // Process the rule if we either could pass it without consuming anything (epsilon transition)
             // or if the current input symbol will be matched somewhere after this entry point.
             // Otherwise stop here.
-            if (!followSets.combined!!.contains(Token.EPSILON) && !followSets.combined!!.contains(currentSymbol)) {
-                callStack.pop()
-                //println("POPPING FROM CALLSTACK B $callStack")
+            if (!followSets.combined.contains(Token.EPSILON) && !followSets.combined.contains(currentSymbol)) {
                 return result
             }
         }
 
         // The current state execution pipeline contains all yet-to-be-processed ATN states in this rule.
         // For each such state we store the token index + a list of rules that lead to it.
-        val statePipeline = LinkedList<PipelineEntry>()
-        var currentEntry : PipelineEntry?
+        val statePipeline = java.util.ArrayDeque<PipelineEntry>()
+        var currentEntry : PipelineEntry
 
         // Bootstrap the pipeline.
-        statePipeline.push(PipelineEntry(startState, tokenIndex, callStack.toMutableList()))
+        statePipeline.push(PipelineEntry(startState, tokenIndex))
 
-        val processed = LinkedList<PipelineEntry>()
+        // Entries reaching the same state at the same token through the same rules continue the same way.
+        val processed = HashSet<PipelineEntry>()
         pipelineLoop@ while (statePipeline.isNotEmpty()) {
+            this.cancellationCheck()
             if (statePipeline.size > 1000) {
                 throw RuntimeException("State pipeline way too big")
             }
             currentEntry = statePipeline.pop()
 
-            if (processed.contains(currentEntry)) {
+            if (!processed.add(currentEntry)) {
                 continue
-            } else {
-                processed.add(currentEntry)
             }
             ++this.statesProcessed
 
             currentSymbol = this.tokens[currentEntry.tokenIndex]
 
-            val atCaret = currentEntry!!.tokenIndex >= this.tokens.size - 1
+            val atCaret = currentEntry.tokenIndex >= this.tokens.size - 1
             if (this.showDebugOutput) {
                 this.printDescription(indentation, currentEntry.state, this.generateBaseDescription(currentEntry.state), currentEntry.tokenIndex)
                 if (this.showRuleStack) {
-                    this.printRuleState(currentEntry.callStack)
+                    this.printRuleState(callStack.toList())
                 }
             }
 
-            //println("  Processing Pipeline Entry ${currentEntry.state} ${currentEntry.state.stateType} ${currentEntry.state.describe(ruleNames)} ${currentEntry.transitions}")
-
-            val myPathDescription = if (currentEntry.state.stateType == ATNState.RULE_START) pathDescription.followState(currentEntry.state) else pathDescription
-
             when (currentEntry.state.stateType) {
                 ATNState.RULE_START -> { // Happens only for the first state in this rule, not subrules.
                     indentation += "  "
@@ -622,44 +771,42 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
                 }
             }
 
-            val transitions = currentEntry.state.transitions
-            myFor@ for (transition in transitions) {
-                //println("    transition ${transition.serializationType}")
+            // by index, getTransitions() copies them into a new array
+            myFor@ for (t in 0 until currentEntry.state.numberOfTransitions) {
+                val transition = currentEntry.state.transition(t)
                 when (transition.serializationType) {
                     Transition.RULE -> {
-                        val endStatus = this.processRule(transition.target, currentEntry.tokenIndex, currentEntry.callStack.toMutableList(), indentation,
-                            myPathDescription.follow(transition))
+                        val endStatus = this.processRule(transition.target, currentEntry.tokenIndex, callStack, indentation)
+                        val calledRules = currentEntry.calledRules.push(transition.target.ruleIndex)
                         for (position in endStatus) {
-                            statePipeline.push(PipelineEntry((transition as RuleTransition).followState, position, currentEntry.callStack.toMutableList(),
-                                currentEntry.transitions + listOf(transition)))
+                            statePipeline.push(PipelineEntry((transition as RuleTransition).followState, position, calledRules))
                         }
                     }
 
                     Transition.PREDICATE -> {
                         if (this.checkPredicate(transition as PredicateTransition)) {
-                            statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex, currentEntry.callStack.toMutableList(),
-                                currentEntry.transitions + listOf(transition)))
+                            statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex, currentEntry.calledRules))
                         }
                     }
 
                     Transition.WILDCARD -> {
                         if (atCaret) {
-                            if (!this.translateToRuleIndex(currentEntry.callStack)) {
+                            if (!this.translateToRuleIndex(callStack.toList())) {
                                 IntervalSet.of(Token.MIN_USER_TOKEN_TYPE, this.atn.maxTokenType).toList()
                                     .filterNot { this.ignoredTokens.contains(it) }
                                     .forEach {
-                                        this.candidates.recordToken(it, LinkedList(), currentEntry!!.updatedCallStack())
+                                        this.candidates.recordToken(it, LinkedList(), currentEntry.updatedCallStack(callStack))
                                     }
                             }
                         } else {
-                            statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex + 1, currentEntry.callStack.toMutableList(), currentEntry.transitions + listOf(transition) ))
+                            statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex + 1, currentEntry.calledRules))
                         }
                     }
 
                     else -> {
                         if (transition.isEpsilon) {
                             // Jump over simple states with a single outgoing epsilon transition.
-                            statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex, currentEntry.callStack.toMutableList(), currentEntry.transitions + listOf(transition)))
+                            statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex, currentEntry.calledRules))
                             continue@myFor
                         }
 
@@ -668,9 +815,8 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
                             if (transition.serializationType == Transition.NOT_SET) {
                                 set = set.complement(IntervalSet.of(Token.MIN_USER_TOKEN_TYPE, this.atn.maxTokenType))
                             }
-                            //println("    transition atCaret? $atCaret tokenIndex ${currentEntry!!.tokenIndex} tokens ${tokens}")
                             if (atCaret) {
-                                if (!this.translateToRuleIndex(currentEntry.callStack)) {
+                                if (!this.translateToRuleIndex(callStack.toList())) {
                                     val list = set.toList()
                                     val addFollowing = list.size == 1
                                     for (symbol in list) {
@@ -679,9 +825,9 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
                                                 println("=====> collected: ${this.vocabulary.getDisplayName(symbol)}")
 
                                             if (addFollowing) {
-                                                this.candidates.recordToken(symbol, this.getFollowingTokens(transition), currentEntry.updatedCallStack())
+                                                this.candidates.recordToken(symbol, this.getFollowingTokens(transition), currentEntry.updatedCallStack(callStack))
                                             } else {
-                                                this.candidates.recordToken(symbol, LinkedList(), currentEntry.updatedCallStack())
+                                                this.candidates.recordToken(symbol, LinkedList(), currentEntry.updatedCallStack(callStack))
                                             }
                                         }
                                     }
@@ -691,7 +837,7 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
                                     if (this.showDebugOutput) {
                                         println("=====> consumed: ${this.vocabulary.getDisplayName(currentSymbol)}")
                                     }
-                                    statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex + 1, currentEntry.callStack.toMutableList(), currentEntry.transitions + listOf(transition) ))
+                                    statePipeline.push(PipelineEntry(transition.target, currentEntry.tokenIndex + 1, currentEntry.calledRules))
                                 }
                             }
                         }
@@ -700,8 +846,6 @@ class CodeCompletionCore(val atn: ATN, val vocabulary: Vocabulary, val ruleNames
             }
         }
 
-        callStack.pop()
-
         // Cache the result, for later lookup to avoid duplicate walks.
         positionMap[tokenIndex] = result
 
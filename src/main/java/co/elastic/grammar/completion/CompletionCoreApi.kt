@@ -29,29 +29,137 @@
 
 package co.elastic.grammar.completion
 
-import org.antlr.v4.runtime.*
-import java.io.ByteArrayInputStream
-import java.nio.charset.Charset
-
-fun <L : Lexer, P : Parser> completionsWithContext(
-    code: String,
-    lexerClass: Class<L>,
-    parserClass: Class<P>
+import co.elastic.grammar.CharSequenceCharStream
+import co.elastic.grammar.EsqlBaseLexer
+import co.elastic.grammar.EsqlBaseParser
+import co.elastic.grammar.EsqlConfig
+import co.elastic.grammar.EsqlLexedText
+import co.elastic.grammar.EsqlParserSession
+import org.antlr.v4.runtime.BufferedTokenStream
+import org.antlr.v4.runtime.CommonTokenStream
+import org.antlr.v4.runtime.ListTokenSource
+import org.antlr.v4.runtime.ParserRuleContext
+import org.antlr.v4.runtime.atn.RuleTransition
+
+const val DEFAULT_CANDIDATES_CACHE_SIZE = 256
+
+// candidates per token types before the caret, shared by all the completions; the plugin sets its size from the settings
+val candidatesCache = CandidatesCache(DEFAULT_CANDIDATES_CACHE_SIZE)
+
+// the lexer and parser are reused from the thread's session instead of being created for every keystroke,
+// checkCanceled is called while lexing and walking the ATN and throws to stop when the completion is obsolete
+@JvmOverloads
+fun completionsWithContext(
+    code: CharSequence,
+    config: EsqlConfig? = null,
+    checkCanceled: Runnable = Runnable {}
+): CandidatesCollection {
+    return completionsWithContext(code, 0, code.length, config, checkCanceled)
+}
+
+// completes at the caret, end being its offset in code: only the text between start and the caret is lexed,
+// in place, so whatever follows the caret costs nothing and doesn't change the suggestions
+@JvmOverloads
+fun completionsWithContext(
+    code: CharSequence,
+    start: Int,
+    end: Int,
+    config: EsqlConfig? = null,
+    checkCanceled: Runnable = Runnable {}
 ): CandidatesCollection {
-    val lexerConstructor =
-        lexerClass.constructors.find { it.parameterCount == 1 && it.parameterTypes[0] == CharStream::class.java }!!
-    val charStream = ANTLRInputStream(ByteArrayInputStream(code.toByteArray(Charset.defaultCharset())))
-    val lexer = lexerConstructor.newInstance(charStream) as Lexer
+    EsqlParserSession.acquire(CharSequenceCharStream(code, start, end), config, checkCanceled).use { session ->
+        return collectCandidates(session, session.tokens(), checkCanceled)
+    }
+}
+
+// completes at the end of text, which is lexed already; meant for consecutive completions in the same editor,
+// where the text of the next one is lexed from the previous one with EsqlLexedText.lex
+@JvmOverloads
+fun completionsWithContext(
+    text: EsqlLexedText,
+    config: EsqlConfig? = null,
+    checkCanceled: Runnable = Runnable {}
+): CandidatesCollection {
+    EsqlParserSession.acquire(CharSequenceCharStream(""), config, checkCanceled).use { session ->
+        return collectCandidates(session, CommonTokenStream(ListTokenSource(text.tokens())), checkCanceled)
+    }
+}
 
-    val parserConstructor =
-        parserClass.constructors.find { it.parameterCount == 1 && it.parameterTypes[0] == TokenStream::class.java }!!
-    val parser = parserConstructor.newInstance(CommonTokenStream(lexer)) as Parser
-    val codeCompletionCode = CodeCompletionCore.fromParser(parser)
+private fun collectCandidates(session: EsqlParserSession, tokens: BufferedTokenStream, checkCanceled: Runnable): CandidatesCollection {
+    val codeCompletionCode = CodeCompletionCore.fromParser(session.parser())
+    codeCompletionCode.cancellationCheck = checkCanceled::run
+    codeCompletionCode.candidatesCache = candidatesCache
 
-    return codeCompletionCode.collectCandidates(parser.tokenStream, code.length)
+    // the caret is past the last lexed token, the candidates are the ones following the whole stream
+    return codeCompletionCode.collectCandidates(tokens, Int.MAX_VALUE, currentCommand(tokens))
 }
 
-fun <L : Lexer, P : Parser> completions(code: String, lexerClass: Class<L>, parserClass: Class<P>): Set<TokenKind> {
-    return completionsWithContext(code, lexerClass, parserClass).tokens.keys.toSet()
+// the state of the query rule invoking processingCommand, which tells what may follow a command
+private val processingCommandInvokingState: Int by lazy {
+    EsqlBaseParser._ATN.states.first { state ->
+        state != null && state.ruleIndex == EsqlBaseParser.RULE_query && state.numberOfTransitions == 1 &&
+            (state.transition(0) as? RuleTransition)?.target?.ruleIndex == EsqlBaseParser.RULE_processingCommand
+    }.stateNumber
 }
 
+// the processing command the caret is in, which starts after the last pipe outside of parentheses and brackets,
+// so that the ATN walk only covers the current command instead of the whole query; null before the first pipe,
+// where the walk starts from singleStatement
+private fun currentCommand(tokens: BufferedTokenStream): ParserRuleContext? {
+    tokens.fill()
+    var depth = 0
+    var lastPipe = -1
+    for (token in tokens.tokens) {
+        when (token.type) {
+            EsqlBaseLexer.LP, EsqlBaseLexer.OPENING_BRACKET -> depth++
+            EsqlBaseLexer.RP, EsqlBaseLexer.CLOSING_BRACKET -> if (depth > 0) depth--
+            EsqlBaseLexer.PIPE -> if (depth == 0) lastPipe = token.tokenIndex
+        }
+    }
+    if (lastPipe < 0) {
+        return null
+    }
+    val context = EsqlBaseParser.ProcessingCommandContext(null, processingCommandInvokingState)
+    context.start = tokens.get(lastPipe + 1)
+    return context
+}
+
+@JvmOverloads
+fun completions(
+    code: CharSequence,
+    config: EsqlConfig? = null,
+    checkCanceled: Runnable = Runnable {}
+): Set<TokenKind> {
+    return completionsWithContext(code, config, checkCanceled).tokens.keys.toSet()
+}
+
+@JvmOverloads
+fun completions(
+    code: CharSequence,
+    start: Int,
+    end: Int,
+    config: EsqlConfig? = null,
+    checkCanceled: Runnable = Runnable {}
+): Set<TokenKind> {
+    return completionsWithContext(code, start, end, config, checkCanceled).tokens.keys.toSet()
+}
+
+@JvmOverloads
+fun completions(
+    text: EsqlLexedText,
+    config: EsqlConfig? = null,
+    checkCanceled: Runnable = Runnable {}
+): Set<TokenKind> {
+    return completionsWithContext(text, config, checkCanceled).tokens.keys.toSet()
+}
+
+// fills the shared follow set cache for the grammar variant of the config, so the first completion is as fast as
+// the next ones; meant to run once in the background
+@JvmOverloads
+fun precomputeFollowSets(config: EsqlConfig? = null, checkCanceled: Runnable = Runnable {}) {
+    EsqlParserSession.acquire(CharSequenceCharStream(""), config, checkCanceled).use { session ->
+        val codeCompletionCode = CodeCompletionCore.fromParser(session.parser())
+        codeCompletionCode.cancellationCheck = checkCanceled::run
+        codeCompletionCode.precomputeFollowSets()
+    }
+}
@@ -18,13 +18,18 @@
  */
 package co.elastic.plugin;
 
+import co.elastic.grammar.EsqlMarkedLines;
 import com.intellij.lang.Language;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.Key;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 
 import java.util.Optional;
 
@@ -147,34 +152,56 @@ public class CommonUtils {
         "TO_VERSION",
         "TRIM",};
 
+    private static final Key<CachedValue<EsqlMarkedLines>> MARKED_LINES = Key.create("esql.marked.lines");
+
+    // looked up until it's found, the Kotlin plugin may not be installed, or not loaded yet
+    private static volatile Language kotlinLanguage;
+
     // checking if there's a comment above the text block, and if it's marked with "ES|QL"
     public static boolean checkEsqlCommentAbove(PsiElement element) {
-        if (element != null) {
+        if (element != null && element.getNode() != null) {
 
             Project project = element.getProject();
             PsiFile psiFile = element.getContainingFile();
             Document document = PsiDocumentManager.getInstance(project).getDocument(psiFile);
 
             if (document != null) {
-                int offset = element.getTextRange().getStartOffset();
-                int line = document.getLineNumber(offset);
-                if (line > 0) {
-                    int prevLineStart = document.getLineStartOffset(line - 1);
-                    // kotlin has a different offset for lines
-                    if (element.getLanguage().is(Language.findLanguageByID("kotlin"))) {
-                        prevLineStart = document.getLineStartOffset(line - 2);
-                    }
-                    // get the element at the end of the previous line
-                    // -1 to avoid out of bounds
-                    int prevLineEnd = document.getLineEndOffset(line - 1);
-                    String prevLineText = document.getText(new TextRange(prevLineStart, prevLineEnd));
-                    return prevLineText.trim().startsWith("// ES|QL");
-                }
+                // all the marked lines of the file are found at once, and again only when the document changes
+                EsqlMarkedLines markedLines = CachedValuesManager.getCachedValue(psiFile, MARKED_LINES,
+                    () -> CachedValueProvider.Result.create(
+                        EsqlMarkedLines.of(document.getImmutableCharSequence()), document));
+
+                int line = document.getLineNumber(element.getNode().getStartOffset());
+                // kotlin has a different offset for lines
+                return markedLines.isMarked(line, isKotlin(element.getLanguage()));
             }
         }
         return false;
     }
 
+    public static boolean isKotlin(Language language) {
+        Language kotlin = kotlinLanguage();
+        return kotlin != null && language.is(kotlin);
+    }
+
+    /**
+     * Type check for Kotlin string literals, without depending on the Kotlin plugin.
+     */
+    public static boolean isKotlinStringTemplate(IElementType type) {
+        Language kotlin = kotlinLanguage();
+        // the debug name is a field, comparing it doesn't allocate
+        return kotlin != null && type.getLanguage() == kotlin && "STRING_TEMPLATE".equals(type.getDebugName());
+    }
+
+    private static Language kotlinLanguage() {
+        Language language = kotlinLanguage;
+        if (language == null) {
+            language = Language.findLanguageByID("kotlin");
+            kotlinLanguage = language;
+        }
+        return language;
+    }
+
     public static boolean isKotlinString(PsiElement element) {
         return Optional.ofNullable(element.getParent())
             .map(x -> x.toString().equals("LITERAL_STRING_TEMPLATE_ENTRY"))
@@ -18,8 +18,16 @@
  */
 package co.elastic.plugin;
 
+import co.elastic.grammar.EsqlParserWarmUp;
+import co.elastic.grammar.completion.CompletionCoreApiKt;
+import co.elastic.plugin.annotator.EsqlAnnotator;
 import co.elastic.plugin.connection.EsqlPluginQueryManager;
+import co.elastic.plugin.settings.EsqlPluginSettings;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.startup.ProjectActivity;
 import kotlin.Unit;
@@ -27,8 +35,16 @@ import kotlin.coroutines.Continuation;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class ElasticPluginStartup implements ProjectActivity {
 
+    private static final Logger LOG = Logger.getInstance(ElasticPluginStartup.class);
+
+    // the parser caches are static, once per IDE session is enough
+    private static final AtomicBoolean parserWarmedUp = new AtomicBoolean();
+
     EsqlPluginQueryManager queryManager =
         ApplicationManager.getApplication().getService(EsqlPluginQueryManager.class);
 
@@ -36,6 +52,35 @@ public class ElasticPluginStartup implements ProjectActivity {
     public @Nullable Object execute(@NotNull Project project,
                                     @NotNull Continuation<? super Unit> continuation) {
         queryManager.startQueryThreadPool();
+        CompletionCoreApiKt.getCandidatesCache().setMaxSize(
+            ApplicationManager.getApplication().getService(EsqlPluginSettings.class).getCompletionCacheSize());
+        warmUpParser(project);
         return null;
     }
+
+    private static void warmUpParser(@NotNull Project project) {
+        if (!parserWarmedUp.compareAndSet(false, true)) {
+            return;
+        }
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Preparing ES|QL parser", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                long nanos = EsqlParserWarmUp.run(EsqlAnnotator.ESQL_CONFIG, indicator::checkCanceled);
+                LOG.info("ES|QL parser warm-up took " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+
+                // same grammar variant as the completion provider
+                long start = System.nanoTime();
+                CompletionCoreApiKt.precomputeFollowSets(null, indicator::checkCanceled);
+                LOG.info("ES|QL completion follow sets took "
+                         + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+
+            @Override
+            public void onCancel() {
+                // try again with the next project
+                parserWarmedUp.set(false);
+            }
+        });
+    }
 }
@@ -18,45 +18,52 @@
  */
 package co.elastic.plugin.annotator;
 
+import co.elastic.grammar.CharSequenceCharStream;
 import co.elastic.grammar.EsqlBaseLexer;
-import co.elastic.grammar.EsqlBaseParser;
+import co.elastic.grammar.EsqlConfig;
+import co.elastic.grammar.EsqlParserSession;
+import co.elastic.grammar.EsqlTokens;
 import co.elastic.plugin.EsqlIcon;
+import com.intellij.concurrency.JobLauncher;
 import com.intellij.lang.annotation.AnnotationHolder;
-import com.intellij.lang.annotation.Annotator;
+import com.intellij.lang.annotation.ExternalAnnotator;
 import com.intellij.lang.annotation.HighlightSeverity;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.editor.DefaultLanguageHighlighterColors;
-import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiLiteralExpression;
-import com.intellij.psi.TokenType;
+import com.intellij.psi.impl.source.tree.JavaElementType;
 import com.intellij.psi.impl.source.tree.java.PsiJavaTokenImpl;
 import com.intellij.psi.tree.IElementType;
-import org.antlr.v4.runtime.CharStreams;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
-import static co.elastic.plugin.CommonUtils.ESQL_SEPARATORS;
-import static co.elastic.plugin.CommonUtils.FUNCTIONS;
-import static co.elastic.plugin.CommonUtils.PROCESSING_COMMANDS;
-import static co.elastic.plugin.CommonUtils.SOURCE_COMMANDS;
 import static co.elastic.plugin.CommonUtils.checkEsqlCommentAbove;
+import static co.elastic.plugin.CommonUtils.isKotlinStringTemplate;
 import static com.intellij.psi.JavaTokenType.TEXT_BLOCK_LITERAL;
 
 /**
  * Checks the query syntax and underlines errors.
+ * <p>
+ * Runs as an external annotator: the ES|QL literals are collected from the PSI in a read action,
+ * lexed and parsed on the shared pool in the background (cancelled as soon as the document changes),
+ * and all the resulting annotations are applied in a single batch.
  */
-public class EsqlAnnotator implements Annotator {
+public class EsqlAnnotator extends ExternalAnnotator<List<EsqlAnnotator.EsqlLiteral>, List<EsqlAnnotator.LiteralResult>> {
 
     private static Map<String, String> replacementsMap =
         Map.ofEntries(
@@ -79,17 +86,113 @@ public class EsqlAnnotator implements Annotator {
     private static final TextAttributesKey MY_COLOR =
         TextAttributesKey.createTextAttributesKey("MY_COLOR", DefaultLanguageHighlighterColors.KEYWORD);
 
+    // the plugin validates against the development grammar, which is a superset of the release one
+    public static final EsqlConfig ESQL_CONFIG = new EsqlConfig();
+
+    static {
+        ESQL_CONFIG.setDevVersion(true);
+    }
+
+    private final EsqlParseCache parseCache = ApplicationManager.getApplication().getService(EsqlParseCache.class);
+
+    /**
+     * An ES|QL literal found in the file, captured in the read action so it can be parsed without PSI access.
+     * The text is the immutable snapshot of the whole file, the literal is only read in place from it.
+     */
+    static final class EsqlLiteral {
+        final TextRange range;
+        final CharSequence fileText;
+
+        EsqlLiteral(TextRange range, CharSequence fileText) {
+            this.range = range;
+            this.fileText = fileText;
+        }
+    }
+
+    /**
+     * Everything computed in the background for a single literal, ready to be turned into annotations.
+     */
+    static final class LiteralResult {
+        final TextRange range;
+        final List<TextRange> keywords;
+        final List<ErrorAnnotation> errors;
+
+        LiteralResult(TextRange range, List<TextRange> keywords, List<ErrorAnnotation> errors) {
+            this.range = range;
+            this.keywords = keywords;
+            this.errors = errors;
+        }
+    }
+
+    static final class ErrorAnnotation {
+        final TextRange range;
+        final String message;
+
+        ErrorAnnotation(TextRange range, String message) {
+            this.range = range;
+            this.message = message;
+        }
+    }
+
     @Override
-    public void annotate(@NotNull PsiElement element, @NotNull AnnotationHolder holder) {
-        if (accept(element)) {
-            String text = element.getText();
-            applyColor(element, holder, text);
-            validateText(element, holder, text);
+    public @Nullable List<EsqlLiteral> collectInformation(@NotNull PsiFile file) {
+        List<EsqlLiteral> literals = new ArrayList<>();
+        // same text the PSI ranges refer to, and safe to read from any thread
+        CharSequence fileText = file.getViewProvider().getContents();
+        PsiTreeUtil.processElements(file, element -> {
+            if (accept(element)) {
+                literals.add(new EsqlLiteral(element.getTextRange(), fileText));
+            }
+            return true;
+        });
+        return literals;
+    }
+
+    @Override
+    public @Nullable List<LiteralResult> doAnnotate(List<EsqlLiteral> literals) {
+        if (literals == null || literals.isEmpty()) {
+            return List.of();
+        }
+        // each literal is parsed independently, so they can all go to the pool at once;
+        // the daemon indicator cancels the whole batch when the document changes
+        LiteralResult[] results = new LiteralResult[literals.size()];
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+            IntStream.range(0, literals.size()).boxed().toList(),
+            ProgressManager.getInstance().getProgressIndicator(),
+            i -> {
+                results[i] = analyze(literals.get(i));
+                return true;
+            });
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public void apply(@NotNull PsiFile file, List<LiteralResult> results, @NotNull AnnotationHolder holder) {
+        if (results == null) {
+            return;
+        }
+        for (LiteralResult result : results) {
+            // showing plugin icon regardless
+            holder.newAnnotation(HighlightSeverity.INFORMATION, "")
+                .gutterIconRenderer(new EsqlIcon())
+                .range(result.range).create();
+
+            for (TextRange keyword : result.keywords) {
+                holder.newAnnotation(HighlightSeverity.INFORMATION, "")
+                    .textAttributes(MY_COLOR)
+                    .range(keyword).create();
+            }
+
+            for (ErrorAnnotation error : result.errors) {
+                holder.newAnnotation(HighlightSeverity.ERROR, error.message)
+                    .range(error.range).create();
+            }
         }
     }
 
     /**
-     * To filter unwanted elements
+     * To filter unwanted elements. Called for every element of the file, so anything that can't be a string literal
+     * is dropped by comparing its type, without allocating.
      *
      * @return <ttt>true</ttt> to accept or <tt>false</tt> to drop
      */
@@ -99,158 +202,202 @@ public class EsqlAnnotator implements Annotator {
             return false;
         }
 
-        // skip whitespaces
         IElementType type = element.getNode().getElementType();
-        if (type == TokenType.WHITE_SPACE) {
-            return false;
-        }
 
         // it's a literal expression
         // PsiLiteralExpression for java
-        if (element instanceof PsiLiteralExpression) {
+        if (type == JavaElementType.LITERAL_EXPRESSION) {
             // it's a text block (triple quote)
-            if (((PsiJavaTokenImpl) element.getFirstChild()).getElementType().equals(TEXT_BLOCK_LITERAL)) {
+            if (element.getFirstChild() instanceof PsiJavaTokenImpl token
+                && token.getElementType() == TEXT_BLOCK_LITERAL) {
 
                 return checkEsqlCommentAbove(element);
             }
+            return false;
         }
 
         // STRING_TEMPLATE to match kotlin triple quote
-        if (element.toString().equals("STRING_TEMPLATE")) {
+        if (isKotlinStringTemplate(type)) {
             return checkEsqlCommentAbove(element);
         }
 
         return false;
     }
 
-    private void applyColor(@NotNull PsiElement element, @NotNull AnnotationHolder holder,
-                            @NotNull String text) {
-
-        // showing plugin icon regardless
-        holder.newAnnotation(HighlightSeverity.INFORMATION, "")
-            .gutterIconRenderer(new EsqlIcon())
-            .range(element.getTextRange()).create();
-
-        // different color for different types of keywords
-        List<String> allKeywords = new ArrayList<>();
-        allKeywords.addAll(List.of(SOURCE_COMMANDS));
-        allKeywords.addAll(List.of(PROCESSING_COMMANDS));
-        allKeywords.addAll(List.of(FUNCTIONS));
-
-        for (String keyword : allKeywords) {
-            if (text.contains(keyword)) {
-
-                int index = text.indexOf(keyword);
-                // must find all occurrences of word in string
-                while (index >= 0) {
-                    // making sure it's not a substring (example: "COS" and "COSH", "E" and "ENRICH")
-                    if (notASubstring(text, keyword, index)) {
-                        int rangeStart = element.getTextRange().getStartOffset() + index;
-                        int rangeEnd = rangeStart + keyword.length();
-
-                        TextRange range = new TextRange(rangeStart, rangeEnd);
-                        holder.newAnnotation(HighlightSeverity.INFORMATION, "")
-                            .textAttributes(MY_COLOR)
-                            .range(range).create();
-                    }
-                    index = text.indexOf(keyword, index + 1);
-                }
-            }
-        }
+    private LiteralResult analyze(@NotNull EsqlLiteral literal) {
+        ProgressManager.checkCanceled();
+        return validateText(parseCache, literal.fileText, literal.range);
     }
 
-    // looking for either a space, bracket, quote or equals sign before or after
-    // test b regex instead of separators
-    private boolean notASubstring(String text, String substring, int index) {
-        if (index == 0 || index == text.length() - 1) return true;
-        char before = text.charAt(index - 1);
-        char after = text.charAt(index + substring.length());
-        return !(ESQL_SEPARATORS.indexOf(before) == -1) && !(ESQL_SEPARATORS.indexOf(after) == -1);
+    /**
+     * Validate the text and create error messaged from the validation result.
+     * The keywords to highlight come from the same pass over the tokens.
+     *
+     * @param cache    - Results of previous validations, reused when the query didn't change
+     * @param fileText - Text of the whole file, the query is read in place without copying it
+     * @param range    - Range of the literal in the file, including the surrounding triple quotes
+     * @return the keywords and errors found, with their range in the file
+     */
+    static LiteralResult validateText(@NotNull EsqlParseCache cache, @NotNull CharSequence fileText,
+                                      @NotNull TextRange range) {
+        // skip triple quotes at the beginning and the end, also trim
+        int queryStart = range.getStartOffset() + 3;
+        int queryEnd = range.getEndOffset() - 3;
+        while (queryStart < queryEnd && fileText.charAt(queryStart) <= ' ') {
+            queryStart++;
+        }
+        while (queryEnd > queryStart && fileText.charAt(queryEnd - 1) <= ' ') {
+            queryEnd--;
+        }
+        int startingPosition = queryStart;
+        int endingPosition = queryEnd;
+        return validateQuery(fileText, range, startingPosition, endingPosition,
+            () -> cache.computeIfAbsent(fileText, startingPosition, endingPosition,
+                ESQL_CONFIG.isDevVersion(), () -> parse(fileText, startingPosition, endingPosition)));
     }
 
-
     /**
-     * Validate the text and create error messaged from the validation result.
+     * Turns the parse result of an already trimmed query into error messages and keywords.
      *
-     * @param element - Element to parse
-     * @param holder  - Container for the different error messages and it's test range
-     * @param text    - String to validate
+     * @param fileText         - Text of the whole file
+     * @param range            - Range of the literal in the file
+     * @param startingPosition - Start of the query in the file
+     * @param endingPosition   - End of the query in the file
+     * @param parse            - Parses the query, or looks it up
+     * @return the keywords and errors found, with their range in the file
      */
-    private void validateText(@NotNull PsiElement element, @NotNull AnnotationHolder holder,
-                              @NotNull String text) {
-
-        // remove triple quotes at the beginning and the end, also trim
-        String query = text.substring(3, text.length() - 3).trim();
-        // calculating range of inner string
-        // also needed in case of exception
-        int startingPosition = element.getTextRange().getStartOffset() + text.indexOf(query);
-        int endingPosition = startingPosition + query.length();
+    static LiteralResult validateQuery(@NotNull CharSequence fileText, @NotNull TextRange range,
+                                       int startingPosition, int endingPosition,
+                                       @NotNull Supplier<EsqlParseResult> parse) {
+        // range of inner string, needed in case of exception
         TextRange wholeStringRange = new TextRange(startingPosition, endingPosition);
 
+        List<TextRange> keywords = new ArrayList<>();
+        List<ErrorAnnotation> annotations = new ArrayList<>();
         try {
-            InputStream stream = new ByteArrayInputStream(query.getBytes(StandardCharsets.UTF_8));
-            EsqlBaseLexer lexer = new EsqlBaseLexer(CharStreams.fromStream(stream, StandardCharsets.UTF_8));
-
-            EsqlBaseParser parser = new EsqlBaseParser(new CommonTokenStream(lexer));
-
-            parser.setBuildParseTree(false);
-            EsqlErrorListener errorListener = new EsqlErrorListener(new ArrayList<>());
-
-            lexer.removeErrorListeners();
-            lexer.addErrorListener(errorListener);
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
+            EsqlParseResult result = parse.get();
 
-            // rule check
-            parser.singleStatement();
+            for (int i = 0; i < result.highlights.length; i += 2) {
+                keywords.add(new TextRange(startingPosition + result.highlights[i],
+                    startingPosition + result.highlights[i + 1]));
+            }
 
-            for (EsqlErrorListener.Error error : errorListener.errors) {
+            for (EsqlErrorListener.Error error : result.errors) {
 
                 // need to retrieve specific line where error is
-                int absoluteCharPosition = calculateAbsoluteCharPosition(error, element, startingPosition);
-
-                AtomicInteger start = new AtomicInteger(absoluteCharPosition);
+                int start = calculateAbsoluteCharPosition(error, fileText, startingPosition);
 
                 int end = error.offendingToken.map(t ->
                     {
                         // if end of line, just underline the last char of string
                         if (t.equals("<EOF>")) {
-                            return start.get() + 1;
+                            return start + 1;
                         }
-                        return start.get() + t.length();
+                        return start + t.length();
                     })
                     .orElse(endingPosition);
 
-                TextRange range = new TextRange(start.get(), end);
+                annotations.add(new ErrorAnnotation(new TextRange(start, end), formatMessage(error)));
+            }
 
-                // remove all DEV_ experimental fields
-                String message = error.message.replaceAll("DEV_.*?,", "");
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            keywords.clear();
+            annotations.clear();
+            annotations.add(new ErrorAnnotation(wholeStringRange,
+                "annotator error. \nexception: " + e.getClass() +
+                "\nmessage: " + e.getMessage()));
+        }
+        return new LiteralResult(range, keywords, annotations);
+    }
 
-                for (Map.Entry<String, String> replacement : replacementsMap.entrySet()) {
-                    message = message.replace(replacement.getKey(), replacement.getValue());
-                }
+    /**
+     * Lexes and parses the query, collecting the syntax errors and the keywords to highlight.
+     */
+    static EsqlParseResult parse(@NotNull CharSequence query) {
+        return parse(query, 0, query.length());
+    }
 
-                holder.newAnnotation(HighlightSeverity.ERROR, message)
-                    .range(range).create();
+    /**
+     * Lexes and parses the query between the given offsets of the text, reading it in place.
+     * Offsets in the result are relative to the start of the query.
+     */
+    static EsqlParseResult parse(@NotNull CharSequence text, int start, int end) {
+        // lexer and parser of this thread, reset for the query;
+        // a parse made obsolete by the next keystroke stops at the next token
+        try (EsqlParserSession session = EsqlParserSession.acquire(new CharSequenceCharStream(text, start, end),
+            ESQL_CONFIG, ProgressManager::checkCanceled)) {
+            session.parser().setBuildParseTree(false);
+            EsqlErrorListener errorListener = new EsqlErrorListener(new ArrayList<>());
+            session.addErrorListener(errorListener);
+
+            // rule check, with the cheaper SLL prediction first
+            session.singleStatement();
+
+            return new EsqlParseResult(errorListener.errors, highlights(session.tokens()));
+        }
+    }
+
+    /**
+     * Single pass over the tokens the parser already buffered, picking commands (both words of LOOKUP JOIN)
+     * and names of called functions, so keywords inside strings or identifiers are never highlighted.
+     */
+    private static int[] highlights(CommonTokenStream tokens) {
+        // error recovery may stop before the end of the input
+        tokens.fill();
+
+        int[] highlights = new int[16];
+        int count = 0;
+        Token previous = null;
+        for (Token token : tokens.getTokens()) {
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                continue;
             }
+            Token highlighted = null;
+            int type = token.getType();
+            if (EsqlTokens.isCommand(type) || type == EsqlBaseLexer.JOIN) {
+                highlighted = token;
+            } else if (type == EsqlBaseLexer.LP && previous != null
+                       && previous.getType() == EsqlBaseLexer.UNQUOTED_IDENTIFIER) {
+                highlighted = previous;
+            }
+            if (highlighted != null) {
+                if (count + 2 > highlights.length) {
+                    highlights = Arrays.copyOf(highlights, highlights.length * 2);
+                }
+                highlights[count++] = highlighted.getStartIndex();
+                highlights[count++] = highlighted.getStopIndex() + 1;
+            }
+            previous = token;
+        }
+        return Arrays.copyOf(highlights, count);
+    }
 
-        } catch (Exception e) {
-            holder.newAnnotation(HighlightSeverity.ERROR,
-                    "annotator error. \nexception: " + e.getClass() +
-                    "\nmessage: " + e.getMessage())
-                .range(wholeStringRange).create();
+    static String formatMessage(EsqlErrorListener.Error error) {
+        // remove all DEV_ experimental fields
+        String message = error.message.replaceAll("DEV_.*?,", "");
+
+        for (Map.Entry<String, String> replacement : replacementsMap.entrySet()) {
+            message = message.replace(replacement.getKey(), replacement.getValue());
         }
+        return message;
     }
 
-    private int calculateAbsoluteCharPosition(EsqlErrorListener.Error error, PsiElement element,
-                                              int queryStart) {
-        if (error.line == 1) {
-            return queryStart + error.charPositionInLine;
+    // the lines reported by the lexer are relative to the query, so the offset of the line is looked up
+    // in the query itself instead of the document, which isn't safe to read outside of a read action
+    private static int calculateAbsoluteCharPosition(EsqlErrorListener.Error error, CharSequence text,
+                                                     int queryStart) {
+        // the index of the offending token is in UTF-16 chars like the text, unlike the position in the line
+        if (error.startIndex >= 0) {
+            return queryStart + error.startIndex;
+        }
+        int lineStart = queryStart;
+        for (int line = 1; line < error.line && lineStart < text.length(); lineStart++) {
+            if (text.charAt(lineStart) == '\n') {
+                line++;
+            }
         }
-        PsiFile file = element.getContainingFile();
-        Document document = file.getViewProvider().getDocument();
-        int lineStartOffset =
-            document.getLineStartOffset(document.getLineNumber(element.getTextRange().getStartOffset()) + error.line);
-        return lineStartOffset + error.charPositionInLine;
+        return lineStart + error.charPositionInLine;
     }
 }
@@ -22,6 +22,7 @@ import org.antlr.v4.runtime.BaseErrorListener;
 import org.antlr.v4.runtime.LexerNoViableAltException;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
 
 import java.util.List;
 import java.util.Optional;
@@ -32,12 +33,17 @@ public class EsqlErrorListener extends BaseErrorListener {
         String message;
         int line;
         int charPositionInLine;
+        // in UTF-16 chars from the start of the query, like the editor, -1 if unknown;
+        // charPositionInLine counts code points instead
+        int startIndex;
         Optional<String> offendingToken;
 
-        public Error(String message, int line, int charPositionInLine, Optional<String> offendingToken) {
+        public Error(String message, int line, int charPositionInLine, int startIndex,
+                     Optional<String> offendingToken) {
             this.message = message;
             this.line = line;
             this.charPositionInLine = charPositionInLine;
+            this.startIndex = startIndex;
             this.offendingToken = offendingToken;
         }
     }
@@ -56,7 +62,13 @@ public class EsqlErrorListener extends BaseErrorListener {
                             String msg,
                             RecognitionException e) {
         // Lexer exceptions are different and don't have offending token details
-        errors.add(new Error(msg, line, charPositionInLine,
+        int startIndex = -1;
+        if (offendingSymbol instanceof Token token) {
+            startIndex = token.getStartIndex();
+        } else if (e instanceof LexerNoViableAltException lexerError) {
+            startIndex = lexerError.getStartIndex();
+        }
+        errors.add(new Error(msg, line, charPositionInLine, startIndex,
             Optional.ofNullable(e)
                 .filter(ex -> !(ex instanceof LexerNoViableAltException))
                 .map(ex -> ex.getOffendingToken().getText())));
@@ -0,0 +1,177 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.annotator;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of parse results, so that a query which didn't change since the last
+ * highlighting pass costs a hash lookup instead of a full parse.
+ * Entries are keyed by the trimmed query text and the grammar mode (dev/release), and the whole
+ * cache is dropped when the IDE runs low on memory.
+ */
+public final class EsqlParseCache implements Disposable {
+
+    static final int DEFAULT_MAX_SIZE = 512;
+
+    private final Map<Key, EsqlParseResult> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public EsqlParseCache() {
+        this(DEFAULT_MAX_SIZE);
+        LowMemoryWatcher.register(this::clear, this);
+    }
+
+    EsqlParseCache(int maxSize) {
+        // access ordered, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, EsqlParseResult> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    EsqlParseResult computeIfAbsent(@NotNull String query, boolean devVersion,
+                                    @NotNull Supplier<EsqlParseResult> parse) {
+        return computeIfAbsent(query, 0, query.length(), devVersion, parse);
+    }
+
+    /**
+     * Returns the cached result for the query, or parses it with the given function and caches the result.
+     * Parsing happens outside the lock, so concurrent misses on different queries don't wait on each other.
+     * <p>
+     * The query is looked up in place in the text; it's only copied when a new entry is added,
+     * so the cache never holds on to the text of a whole file.
+     */
+    EsqlParseResult computeIfAbsent(@NotNull CharSequence text, int start, int end, boolean devVersion,
+                                    @NotNull Supplier<EsqlParseResult> parse) {
+        Key key = new Key(text, start, end, devVersion);
+        EsqlParseResult result;
+        synchronized (entries) {
+            result = entries.get(key);
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+        result = parse.get();
+        Key copy = key.copy();
+        synchronized (entries) {
+            entries.put(copy, result);
+        }
+        return result;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        clear();
+    }
+
+    @Override
+    public String toString() {
+        return "EsqlParseCache(size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ")";
+    }
+
+    private static final class Key {
+        private final CharSequence text;
+        private final int start;
+        private final int end;
+        private final boolean devVersion;
+        private final int hash;
+
+        Key(CharSequence text, int start, int end, boolean devVersion) {
+            this(text, start, end, devVersion, hash(text, start, end, devVersion));
+        }
+
+        private Key(CharSequence text, int start, int end, boolean devVersion, int hash) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.devVersion = devVersion;
+            this.hash = hash;
+        }
+
+        /**
+         * Same key over its own copy of the query, detached from the text it was looked up in.
+         */
+        Key copy() {
+            String query = text.subSequence(start, end).toString();
+            return new Key(query, 0, query.length(), devVersion, hash);
+        }
+
+        private static int hash(CharSequence text, int start, int end, boolean devVersion) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            return 31 * hash + (devVersion ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key other)) return false;
+            if (hash != other.hash || devVersion != other.devVersion || end - start != other.end - other.start) {
+                return false;
+            }
+            for (int i = 0; i < end - start; i++) {
+                if (text.charAt(start + i) != other.text.charAt(other.start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            // computed once, a lookup hashes the query a single time
+            return hash;
+        }
+    }
+}
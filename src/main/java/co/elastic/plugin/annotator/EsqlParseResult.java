@@ -0,0 +1,38 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.annotator;
+
+import java.util.List;
+
+/**
+ * What a single lex + parse of a query produced: the syntax errors, and the ranges to highlight,
+ * both relative to the start of the query so the result can be reused wherever the query moves in the file.
+ */
+final class EsqlParseResult {
+
+    final List<EsqlErrorListener.Error> errors;
+
+    // start and end offsets of each highlighted token, flattened
+    final int[] highlights;
+
+    EsqlParseResult(List<EsqlErrorListener.Error> errors, int[] highlights) {
+        this.errors = List.copyOf(errors);
+        this.highlights = highlights;
+    }
+}
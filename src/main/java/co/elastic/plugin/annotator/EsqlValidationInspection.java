@@ -0,0 +1,237 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.annotator;
+
+import co.elastic.plugin.index.EsqlIndexedQuery;
+import co.elastic.plugin.index.EsqlQueryIndex;
+import com.intellij.analysis.AnalysisScope;
+import com.intellij.codeInspection.CommonProblemDescriptor;
+import com.intellij.codeInspection.GlobalInspectionContext;
+import com.intellij.codeInspection.GlobalInspectionTool;
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.ProblemDescriptionsProcessor;
+import com.intellij.codeInspection.ProblemHighlightType;
+import com.intellij.codeInspection.options.OptPane;
+import com.intellij.concurrency.JobLauncher;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.intellij.codeInspection.options.OptPane.number;
+import static com.intellij.codeInspection.options.OptPane.pane;
+
+/**
+ * Validates every ES|QL query of the inspected scope with the same grammar as the editor, without opening the files.
+ * <p>
+ * The queries come from {@link EsqlQueryIndex}, are parsed concurrently on the shared pool under the inspection
+ * progress, and the problems are reported per file afterwards. Each reported query comes with its parse time,
+ * and valid queries slower than the configured threshold are reported too.
+ */
+public class EsqlValidationInspection extends GlobalInspectionTool {
+
+    private static final Logger LOG = Logger.getInstance(EsqlValidationInspection.class);
+
+    // how many of the slowest queries get logged after a run
+    private static final int SLOWEST_LOGGED = 10;
+
+    public int slowQueryMillis = 100;
+
+    /**
+     * A query to validate, with the text of its file as it was read from the document.
+     */
+    private static final class Check {
+        final VirtualFile file;
+        final CharSequence fileText;
+        final EsqlIndexedQuery query;
+
+        Check(VirtualFile file, CharSequence fileText, EsqlIndexedQuery query) {
+            this.file = file;
+            this.fileText = fileText;
+            this.query = query;
+        }
+    }
+
+    private static final class Outcome {
+        final Check check;
+        final EsqlAnnotator.LiteralResult result;
+        final long nanos;
+
+        Outcome(Check check, EsqlAnnotator.LiteralResult result, long nanos) {
+            this.check = check;
+            this.result = result;
+            this.nanos = nanos;
+        }
+    }
+
+    @Override
+    public void runInspection(@NotNull AnalysisScope scope, @NotNull InspectionManager manager,
+                              @NotNull GlobalInspectionContext globalContext,
+                              @NotNull ProblemDescriptionsProcessor problemDescriptionsProcessor) {
+        Project project = globalContext.getProject();
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        if (indicator != null) {
+            indicator.setText("Collecting ES|QL queries");
+        }
+        List<Check> checks = ReadAction.compute(() -> collect(project, scope));
+
+        // every query is parsed on its own, the whole batch stops when the inspection is cancelled
+        Outcome[] outcomes = new Outcome[checks.size()];
+        AtomicInteger done = new AtomicInteger();
+        if (indicator != null) {
+            indicator.setText("Validating " + checks.size() + " ES|QL queries");
+            indicator.setIndeterminate(false);
+        }
+        long start = System.nanoTime();
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+            IntStream.range(0, checks.size()).boxed().toList(),
+            indicator,
+            i -> {
+                outcomes[i] = validate(checks.get(i));
+                if (indicator != null) {
+                    indicator.setFraction((double) done.incrementAndGet() / checks.size());
+                    indicator.setText2(checks.get(i).file.getPath());
+                }
+                return true;
+            });
+        long elapsed = System.nanoTime() - start;
+        log(outcomes, elapsed);
+
+        ReadAction.run(() -> report(project, outcomes, manager, globalContext, problemDescriptionsProcessor));
+    }
+
+    private static List<Check> collect(@NotNull Project project, @NotNull AnalysisScope scope) {
+        List<Check> checks = new ArrayList<>();
+        Map<VirtualFile, List<EsqlIndexedQuery>> queries =
+            EsqlQueryIndex.getQueries(GlobalSearchScope.projectScope(project));
+        for (Map.Entry<VirtualFile, List<EsqlIndexedQuery>> entry : queries.entrySet()) {
+            VirtualFile file = entry.getKey();
+            if (!scope.contains(file)) {
+                continue;
+            }
+            Document document = FileDocumentManager.getInstance().getDocument(file);
+            if (document == null) {
+                continue;
+            }
+            // immutable snapshot, read in place by the parser threads
+            CharSequence fileText = document.getImmutableCharSequence();
+            for (EsqlIndexedQuery query : entry.getValue()) {
+                if (query.literalEnd <= fileText.length()) {
+                    checks.add(new Check(file, fileText, query));
+                }
+            }
+        }
+        return checks;
+    }
+
+    // parsed directly rather than through the editor cache, so the time is the actual parse time
+    // and the entries of the open files aren't evicted by the rest of the project
+    private static Outcome validate(@NotNull Check check) {
+        EsqlIndexedQuery query = check.query;
+        long start = System.nanoTime();
+        EsqlAnnotator.LiteralResult result = EsqlAnnotator.validateQuery(check.fileText,
+            new TextRange(query.literalStart, query.literalEnd), query.start, query.end,
+            () -> EsqlAnnotator.parse(check.fileText, query.start, query.end));
+        return new Outcome(check, result, System.nanoTime() - start);
+    }
+
+    private void report(@NotNull Project project, Outcome[] outcomes, @NotNull InspectionManager manager,
+                        @NotNull GlobalInspectionContext globalContext,
+                        @NotNull ProblemDescriptionsProcessor processor) {
+        long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+        for (Outcome outcome : outcomes) {
+            boolean slow = slowQueryMillis > 0 && outcome.nanos >= slowQueryNanos;
+            if (outcome.result.errors.isEmpty() && !slow) {
+                continue;
+            }
+            PsiFile file = PsiManager.getInstance(project).findFile(outcome.check.file);
+            if (file == null) {
+                continue;
+            }
+            String time = formatTime(outcome.nanos);
+            List<CommonProblemDescriptor> descriptors = new ArrayList<>();
+            for (EsqlAnnotator.ErrorAnnotation error : outcome.result.errors) {
+                descriptors.add(manager.createProblemDescriptor(file, error.range,
+                    error.message + " (parsed in " + time + ")", ProblemHighlightType.GENERIC_ERROR_OR_WARNING,
+                    false));
+            }
+            if (slow) {
+                descriptors.add(manager.createProblemDescriptor(file,
+                    new TextRange(outcome.check.query.start, outcome.check.query.end),
+                    "ES|QL query took " + time + " to parse", ProblemHighlightType.WEAK_WARNING, false));
+            }
+            processor.addProblemElement(globalContext.getRefManager().getReference(file),
+                descriptors.toArray(CommonProblemDescriptor[]::new));
+        }
+    }
+
+    private static void log(Outcome[] outcomes, long elapsed) {
+        if (outcomes.length == 0) {
+            return;
+        }
+        StringBuilder message = new StringBuilder("Validated ").append(outcomes.length)
+            .append(" ES|QL queries in ").append(formatTime(elapsed)).append(", slowest:");
+        Arrays.stream(outcomes)
+            .sorted(Comparator.comparingLong((Outcome o) -> o.nanos).reversed())
+            .limit(SLOWEST_LOGGED)
+            .forEach(o -> message.append("\n  ").append(formatTime(o.nanos)).append(' ')
+                .append(o.check.file.getPath()).append(" [").append(o.check.query.start).append(']'));
+        LOG.info(message.toString());
+    }
+
+    private static String formatTime(long nanos) {
+        return String.format(Locale.ROOT, "%.1f ms", nanos / 1_000_000.0);
+    }
+
+    @Override
+    public boolean isGraphNeeded() {
+        return false;
+    }
+
+    // collecting and reporting take their own read actions, the parsing runs without one
+    @Override
+    public boolean isReadActionNeeded() {
+        return false;
+    }
+
+    @Override
+    public @NotNull OptPane getOptionsPane() {
+        return pane(
+            number("slowQueryMillis", "Report queries taking longer to parse than (ms, 0 to disable):", 0, 60_000));
+    }
+}
@@ -20,13 +20,17 @@ package co.elastic.plugin.autocomplete;
 
 import co.elastic.grammar.EsqlBaseLexer;
 import co.elastic.grammar.EsqlBaseParser;
+import co.elastic.grammar.EsqlCompletionScope;
+import co.elastic.grammar.EsqlLexedText;
 import co.elastic.grammar.completion.CompletionCoreApiKt;
+import co.elastic.plugin.connection.EsqlFieldCatalog;
 import co.elastic.plugin.connection.EsqlPluginQueryManager;
 import co.elastic.plugin.settings.EsqlPluginSettings;
 import com.intellij.codeInsight.completion.CompletionParameters;
 import com.intellij.codeInsight.completion.CompletionProvider;
 import com.intellij.codeInsight.completion.CompletionResultSet;
 import com.intellij.codeInsight.completion.PrioritizedLookupElement;
+import com.intellij.codeInsight.completion.impl.CamelHumpMatcher;
 import com.intellij.codeInsight.lookup.LookupElement;
 import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.codeInsight.lookup.LookupElementDecorator;
@@ -35,16 +39,20 @@ import com.intellij.codeInsight.lookup.LookupElementRenderer;
 import com.intellij.ide.projectWizard.NewProjectWizardConstants;
 import com.intellij.lang.Language;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.ui.JBColor;
 import com.intellij.util.ProcessingContext;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
-import static co.elastic.plugin.CommonUtils.FUNCTIONS;
 import static co.elastic.plugin.CommonUtils.METADATA_OPTIONS;
 import static co.elastic.plugin.CommonUtils.SOURCE_COMMANDS;
 import static co.elastic.plugin.CommonUtils.checkEsqlCommentAbove;
@@ -55,6 +63,8 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
     EsqlPluginQueryManager queryManager =
         ApplicationManager.getApplication().getService(EsqlPluginQueryManager.class);
 
+    private static final Key<EsqlLexedText> COMPLETION_TOKENS = Key.create("esql.completion.tokens");
+
     // maximum number of characters a source command will have, including space
     private final int STARTER_QUERY = 5;
 
@@ -63,12 +73,14 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
         fields
     }
 
-    private static Map<String, ServerOperation> serverOperationsMap =
+    // by the token type of the command being completed
+    private static Map<Integer, ServerOperation> serverOperationsMap =
         Map.ofEntries(
-            Map.entry("FROM", ServerOperation.indices),
-            Map.entry("SORT", ServerOperation.fields),
-            Map.entry("EVAL", ServerOperation.fields),
-            Map.entry("WHERE", ServerOperation.fields)
+            Map.entry(EsqlBaseLexer.FROM, ServerOperation.indices),
+            Map.entry(EsqlBaseLexer.DEV_TIME_SERIES, ServerOperation.indices),
+            Map.entry(EsqlBaseLexer.SORT, ServerOperation.fields),
+            Map.entry(EsqlBaseLexer.EVAL, ServerOperation.fields),
+            Map.entry(EsqlBaseLexer.WHERE, ServerOperation.fields)
         );
 
     @Override
@@ -76,28 +88,44 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
                                   @NotNull ProcessingContext context,
                                   @NotNull CompletionResultSet result) {
 
-        // getting the full text from the element at cursor, and not from the prefix matcher,
+        // getting the text from the element at cursor, and not from the prefix matcher,
         // because an ES|QL query can include "/", which is considered as a separator character
         var elementAtOffset = parameters.getOriginalPosition();
-        String text = elementAtOffset.getText();
+        if (elementAtOffset == null || !checkEsqlCommentAbove(elementAtOffset)) {
+            return;
+        }
 
-        // removing triple quotes if java, trimming
+        TextRange range = elementAtOffset.getTextRange();
+        CharSequence fileText = elementAtOffset.getContainingFile().getViewProvider().getContents();
+        int start = range.getStartOffset();
+        int end = range.getEndOffset();
+
+        // skipping triple quotes if java
         if (elementAtOffset.getLanguage().is(Language.findLanguageByID("JAVA"))) {
-            text = text.substring(3, text.length() - 3);
+            start += 3;
+            end -= 3;
         }
-        text = text.trim();
 
+        // completing at the caret, so only the text before it is considered: the original file has the same
+        // offsets as the completion copy up to the caret, and the text block's indentation is just whitespace
+        // to the lexer, so the query is read in place up to there
+        int caret = Math.max(start, Math.min(parameters.getOffset(), end));
+        CharSequence beforeCaret = fileText.subSequence(start, caret);
+        String text = beforeCaret.toString().trim();
 
-        if (!checkEsqlCommentAbove(elementAtOffset)) {
-            return;
-        }
+        // lexing from the tokens of the previous completion in this editor, which usually only differs
+        // by the characters typed since
+        Editor editor = parameters.getEditor();
+        EsqlLexedText lexed = EsqlLexedText.lex(fileText, start, caret, null, editor.getUserData(COMPLETION_TOKENS),
+            ProgressManager::checkCanceled);
+        editor.putUserData(COMPLETION_TOKENS, lexed);
 
         // suggesting possible fields/indices by also querying elasticsearch if configured
-        autofillQuery(result, text);
+        autofillQuery(result, EsqlCompletionScope.of(lexed.tokens()));
 
         // using antlr grammar to figure out next token
-        Set<Integer> expectedTokenTypes = CompletionCoreApiKt.completions(text, EsqlBaseLexer.class,
-            EsqlBaseParser.class);
+        Set<Integer> expectedTokenTypes =
+            CompletionCoreApiKt.completions(lexed, null, ProgressManager::checkCanceled);
 
         // try to complete string if there's no suggestions
         // and if the full text is short enough that we're probably at the beginning of the query
@@ -112,10 +140,12 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
             }
             return;
         }
-        putResult(result, expectedTokenTypes);
+        // not trimmed, so that nothing is typed yet after a keyword and a space
+        putResult(result, expectedTokenTypes, EsqlFunctionLookup.prefixAt(beforeCaret));
     }
 
-    private static void putResult(@NotNull CompletionResultSet result, Set<Integer> expectedTokenTypes) {
+    private static void putResult(@NotNull CompletionResultSet result, Set<Integer> expectedTokenTypes,
+                                  String prefix) {
 
         for (Integer tokenType : expectedTokenTypes) {
             String token = EsqlBaseParser.VOCABULARY.getDisplayName(tokenType);
@@ -149,12 +179,10 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
                         result.withPrefixMatcher(new PermissivePrefixMatcher()).addElement(PrioritizedLookupElement
                             .withPriority(LookupElementBuilder.create("{num}"), 5));
                         break;
-                    // LP means functions, adding brackets to token
+                    // LP means functions, only the ones starting with what's typed, with brackets added
                     case "LP":
-                        for (String function : FUNCTIONS) {
-                            result.withPrefixMatcher(new PermissivePrefixMatcher()).addElement(PrioritizedLookupElement
-                                .withPriority(LookupElementBuilder.create(function + "()"), 5));
-                        }
+                        result.withPrefixMatcher(new CamelHumpMatcher(prefix, false))
+                            .addAllElements(EsqlFunctionLookup.lookupElements(prefix));
                         break;
                     // putting pipe | first in selection by increasing priority
                     case "|":
@@ -173,25 +201,29 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
         }
     }
 
-    private void autofillQuery(@NotNull CompletionResultSet result, String text) {
-        // find last command
-        String[] words = text.split("[ ()=\"']+");
-        String lastWord = words[words.length - 1].trim().toUpperCase();
-
+    private void autofillQuery(@NotNull CompletionResultSet result, EsqlCompletionScope scope) {
         // metadata special case
-        if (lastWord.equals("METADATA")) {
+        if (scope.metadata) {
             for (String metadataOpt : METADATA_OPTIONS) {
                 insertLookupWithColor(result, metadataOpt);
             }
+            return;
         }
 
-        // online only options
-        if (!settings.getServerUrl().isEmpty() && !settings.getApiKey().isEmpty()) {
+        ServerOperation serverOp = serverOperationsMap.get(scope.command);
+        if (serverOp == null) {
+            return;
+        }
 
-            ServerOperation serverOp = serverOperationsMap.get(lastWord);
-            if (serverOp == null) {
-                return;
+        // the columns defined by the query itself don't need a server
+        if (serverOp == ServerOperation.fields) {
+            for (String column : scope.columns) {
+                insertLookupWithColor(result, column);
             }
+        }
+
+        // online only options
+        if (!settings.getServerUrl().isEmpty() && !settings.getApiKey().isEmpty()) {
 
             // hardcoded for now
             switch (serverOp) {
@@ -203,19 +235,25 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
                     break;
                 }
                 case fields: {
-                    // find index used. should be the word after FROM
-                    String index = "";
-                    for (int i = 0; i < words.length - 1; i++) {
-                        if (words[i].trim().equals("FROM")) {
-                            index = words[i + 1].trim();
-                            break;
+                    if (!scope.indexFields) return;
+
+                    // the fields of every index read, index patterns included, with their type in the first one
+                    EsqlFieldCatalog catalog = queryManager.getFieldCatalog();
+                    Map<String, String> fields = new LinkedHashMap<>();
+                    for (String index : catalog.indices()) {
+                        for (String pattern : scope.indices) {
+                            if (EsqlCompletionScope.matches(pattern, index)) {
+                                for (EsqlFieldCatalog.Field field : catalog.fields(index)) {
+                                    fields.putIfAbsent(field.path, field.type);
+                                }
+                                break;
+                            }
                         }
                     }
-                    if (index.isEmpty()) return;
-
-                    List<String> fields = queryManager.getFields(index);
-                    for (String field : fields) {
-                        insertLookupWithColor(result, field);
+                    fields.keySet().removeAll(scope.columns);
+                    for (Map.Entry<String, String> field : fields.entrySet()) {
+                        insertLookupWithColor(result, LookupElementBuilder.create(field.getKey())
+                            .withTypeText(field.getValue()));
                     }
                     break;
                 }
@@ -224,7 +262,10 @@ public class EsqlCompletionProvider extends CompletionProvider<CompletionParamet
     }
 
     private static void insertLookupWithColor(@NotNull CompletionResultSet result, String token) {
-        LookupElement lookup = LookupElementBuilder.create(token);
+        insertLookupWithColor(result, LookupElementBuilder.create(token));
+    }
+
+    private static void insertLookupWithColor(@NotNull CompletionResultSet result, LookupElement lookup) {
         result.withPrefixMatcher(new PermissivePrefixMatcher())
             .addElement(PrioritizedLookupElement
                 .withPriority(LookupElementDecorator.withRenderer(lookup, new LookupElementRenderer<>() {
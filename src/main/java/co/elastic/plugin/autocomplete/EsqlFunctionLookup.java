@@ -0,0 +1,169 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.autocomplete;
+
+import co.elastic.plugin.documentation.EsqlDocsMap;
+import com.intellij.codeInsight.completion.PrioritizedLookupElement;
+import com.intellij.codeInsight.lookup.LookupElement;
+import com.intellij.codeInsight.lookup.LookupElementBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static co.elastic.plugin.CommonUtils.FUNCTIONS;
+
+/**
+ * The functions offered by completion, with their parameters and return types taken from the documentation.
+ * The table is built once and sorted by name, so the functions starting with what was typed are a contiguous
+ * range found by binary search, and only those are turned into lookup elements.
+ */
+final class EsqlFunctionLookup {
+
+    private static final Pattern PARAMETER = Pattern.compile("<definition term=\"([^\"]+)\">");
+    private static final Pattern ROW = Pattern.compile("<tr[^>]*>(.*?)</tr>", Pattern.DOTALL);
+    private static final Pattern CELL = Pattern.compile("<td>(.*?)</td>", Pattern.DOTALL);
+    private static final Pattern CODE = Pattern.compile("<code>.*?</code>", Pattern.DOTALL);
+    private static final Pattern TAG = Pattern.compile("<[^>]+>");
+
+    private static final Function[] TABLE = table();
+
+    static final class Function {
+        final String name;
+        // (a, b), empty when undocumented
+        final String parameters;
+        // double | long, empty when undocumented
+        final String returnTypes;
+
+        Function(String name, String parameters, String returnTypes) {
+            this.name = name;
+            this.parameters = parameters;
+            this.returnTypes = returnTypes;
+        }
+
+        LookupElement lookupElement() {
+            return PrioritizedLookupElement.withPriority(LookupElementBuilder.create(name + "()")
+                .withPresentableText(name)
+                .withTailText(parameters, true)
+                .withTypeText(returnTypes), 5);
+        }
+    }
+
+    private EsqlFunctionLookup() {}
+
+    /**
+     * The functions whose name starts with the prefix, ignoring case, in alphabetical order.
+     */
+    static List<Function> withPrefix(String prefix) {
+        String key = prefix.toUpperCase(Locale.ROOT);
+        int from = firstNotBefore(key);
+        int to = from;
+        while (to < TABLE.length && TABLE[to].name.startsWith(key)) {
+            to++;
+        }
+        return Arrays.asList(TABLE).subList(from, to);
+    }
+
+    /**
+     * The start of the function name being typed at the end of the text, empty if the text ends with anything
+     * else, such as the space after a keyword.
+     */
+    static String prefixAt(CharSequence text) {
+        int start = text.length();
+        while (start > 0 && (Character.isLetterOrDigit(text.charAt(start - 1)) || text.charAt(start - 1) == '_')) {
+            start--;
+        }
+        return text.subSequence(start, text.length()).toString();
+    }
+
+    static List<LookupElement> lookupElements(String prefix) {
+        List<Function> functions = withPrefix(prefix);
+        List<LookupElement> elements = new ArrayList<>(functions.size());
+        for (Function function : functions) {
+            elements.add(function.lookupElement());
+        }
+        return elements;
+    }
+
+    private static int firstNotBefore(String key) {
+        int low = 0;
+        int high = TABLE.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (TABLE[middle].name.compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static Function[] table() {
+        Function[] table = new Function[FUNCTIONS.length];
+        for (int i = 0; i < FUNCTIONS.length; i++) {
+            String name = FUNCTIONS[i];
+            String doc = EsqlDocsMap.getRawDoc(name.toLowerCase(Locale.ROOT));
+            table[i] = doc == null ? new Function(name, "", "") : new Function(name, parameters(doc), returnTypes(doc));
+        }
+        Arrays.sort(table, (a, b) -> a.name.compareTo(b.name));
+        return table;
+    }
+
+    private static String parameters(String doc) {
+        List<String> parameters = new ArrayList<>();
+        Matcher matcher = PARAMETER.matcher(doc);
+        while (matcher.find()) {
+            parameters.add(matcher.group(1));
+        }
+        return "(" + String.join(", ", parameters) + ")";
+    }
+
+    // the last column of the supported types table
+    private static String returnTypes(String doc) {
+        int types = doc.indexOf("Supported types");
+        int start = types < 0 ? -1 : doc.indexOf("<tbody>", types);
+        int end = start < 0 ? -1 : doc.indexOf("</tbody>", start);
+        if (end < 0) {
+            return "";
+        }
+        Set<String> returnTypes = new LinkedHashSet<>();
+        Matcher row = ROW.matcher(doc.substring(start, end));
+        while (row.find()) {
+            String last = null;
+            Matcher cell = CELL.matcher(row.group(1));
+            while (cell.find()) {
+                last = cell.group(1);
+            }
+            if (last != null) {
+                // dropping version notes such as <code>stack: ga 9.2.0</code>
+                String type = TAG.matcher(CODE.matcher(last).replaceAll("")).replaceAll("").trim();
+                if (!type.isEmpty()) {
+                    returnTypes.add(type);
+                }
+            }
+        }
+        return String.join(" | ", returnTypes);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * The leaf fields of every index of a cluster, by dotted path ({@code host.name}, {@code message.keyword}) with
+ * their Elasticsearch type.
+ * <p>
+ * Clusters often have thousands of indices with the same mapping (ECS, data streams...), so the catalog is built
+ * to share everything they have in common: each path and type string is held once, each field (path and type) is a
+ * single instance, and indices with exactly the same fields share one {@link Schema}. The heap used grows with the
+ * number of distinct mappings, not with the number of indices.
+ */
+public final class EsqlFieldCatalog {
+
+    static final EsqlFieldCatalog EMPTY = new Builder().build();
+
+    private final Map<String, Schema> schemasByIndex;
+    private final List<Schema> schemas;
+    // the mapping version each index was read at, when known
+    private final Map<String, String> versions;
+
+    private EsqlFieldCatalog(Map<String, Schema> schemasByIndex, List<Schema> schemas, Map<String, String> versions) {
+        this.schemasByIndex = schemasByIndex;
+        this.schemas = schemas;
+        this.versions = versions;
+    }
+
+    public static final class Field {
+        public final String path;
+        public final String type;
+        // field lists are hashed whole to be shared, so this is computed once
+        private final int hash;
+
+        private Field(String path, String type) {
+            this.path = path;
+            this.type = type;
+            this.hash = 31 * path.hashCode() + type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Field other)) return false;
+            return path.equals(other.path) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return path + ":" + type;
+        }
+    }
+
+    /**
+     * The fields shared by one or more indices.
+     */
+    static final class Schema {
+        final List<Field> fields;
+        final List<String> indices = new ArrayList<>();
+
+        private Schema(List<Field> fields) {
+            this.fields = fields;
+        }
+    }
+
+    public boolean isEmpty() {
+        return schemasByIndex.isEmpty();
+    }
+
+    public List<String> indices() {
+        return new ArrayList<>(schemasByIndex.keySet());
+    }
+
+    /**
+     * The fields of the index in the order of its mapping, empty if the index isn't known.
+     */
+    public List<Field> fields(String index) {
+        Schema schema = schemasByIndex.get(index);
+        return schema == null ? List.of() : schema.fields;
+    }
+
+    /**
+     * The version of the mapping the fields of the index were read from, null if it isn't known.
+     */
+    public String version(String index) {
+        return versions.get(index);
+    }
+
+    /**
+     * The indices that have a field with this path, whatever its type there.
+     */
+    public List<String> indicesOf(String path) {
+        Set<String> indices = new LinkedHashSet<>();
+        for (Schema schema : schemas) {
+            for (Field field : schema.fields) {
+                if (field.path.equals(path)) {
+                    indices.addAll(schema.indices);
+                    break;
+                }
+            }
+        }
+        return new ArrayList<>(indices);
+    }
+
+    /**
+     * How many distinct field lists the indices have, at most the number of indices.
+     */
+    public int schemaCount() {
+        return schemas.size();
+    }
+
+    Collection<Schema> schemas() {
+        return schemas;
+    }
+
+    /**
+     * Collects the fields index by index, sharing the strings, fields and field lists already seen.
+     */
+    static final class Builder {
+        private final Map<String, String> strings = new HashMap<>();
+        private final Map<Field, Field> fields = new HashMap<>();
+        private final Map<List<Field>, Schema> schemas = new HashMap<>();
+        private final Map<String, Schema> schemasByIndex = new HashMap<>();
+        private final Map<String, String> versions = new HashMap<>();
+
+        /**
+         * Adds the indices of the catalog that are kept, with their fields and versions as they are.
+         */
+        void addAll(EsqlFieldCatalog catalog, Predicate<String> keepIndex) {
+            for (Schema schema : catalog.schemas) {
+                List<Field> shared = null;
+                for (String index : schema.indices) {
+                    if (!keepIndex.test(index)) {
+                        continue;
+                    }
+                    if (shared == null) {
+                        // interned again, so that the fields read next share the strings and fields of these
+                        List<Field> fields = new ArrayList<>(schema.fields.size());
+                        for (Field field : schema.fields) {
+                            fields.add(field(field.path, field.type));
+                        }
+                        shared = List.copyOf(fields);
+                    }
+                    add(index, shared);
+                    String version = catalog.version(index);
+                    if (version != null) {
+                        version(index, version);
+                    }
+                }
+            }
+        }
+
+        Field field(String path, String type) {
+            Field field = new Field(intern(path), intern(type));
+            Field existing = fields.putIfAbsent(field, field);
+            return existing == null ? field : existing;
+        }
+
+        /**
+         * Adds an index with the fields returned by {@link #field}, replacing what was added for it before.
+         */
+        void add(String index, List<Field> indexFields) {
+            // List.copyOf doesn't copy a list that's already immutable
+            Schema schema = schemas.computeIfAbsent(List.copyOf(indexFields), Schema::new);
+            Schema previous = schemasByIndex.put(index, schema);
+            if (previous != null) {
+                previous.indices.remove(index);
+            }
+            schema.indices.add(index);
+        }
+
+        void version(String index, String version) {
+            versions.put(index, version);
+        }
+
+        EsqlFieldCatalog build() {
+            List<Schema> used = new ArrayList<>();
+            for (Schema schema : schemas.values()) {
+                if (!schema.indices.isEmpty()) {
+                    used.add(schema);
+                }
+            }
+            // only for the indices that were added
+            Map<String, String> indexVersions = new HashMap<>(versions);
+            indexVersions.keySet().retainAll(schemasByIndex.keySet());
+            return new EsqlFieldCatalog(Collections.unmodifiableMap(new HashMap<>(schemasByIndex)),
+                Collections.unmodifiableList(used), Collections.unmodifiableMap(indexVersions));
+        }
+
+        private String intern(String value) {
+            String existing = strings.putIfAbsent(value, value);
+            return existing == null ? value : existing;
+        }
+    }
+}
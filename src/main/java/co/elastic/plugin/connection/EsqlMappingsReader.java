@@ -0,0 +1,226 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.connection;
+
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParsingException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Reads the leaf fields of every index from a get mapping response, as the parser streams it:
+ * nothing but their paths and types is kept, so the response of a cluster with thousands of indices is never
+ * held as a tree.
+ * <p>
+ * Fields of objects are named by their path ({@code host.name}), and multi-fields are fields of their own
+ * ({@code message.keyword}), as ES|QL sees them. Objects themselves aren't fields.
+ * <p>
+ * Also reads the mapping version of every index from the cluster state, to only get the mappings that changed.
+ */
+final class EsqlMappingsReader {
+
+    private EsqlMappingsReader() {}
+
+    /**
+     * Reads {@code {"index": {"mappings": {"properties": {...}}}, ...}} into the fields of each included index.
+     */
+    static EsqlFieldCatalog read(JsonParser parser, Predicate<String> includeIndex) {
+        EsqlFieldCatalog.Builder catalog = new EsqlFieldCatalog.Builder();
+        read(parser, catalog, includeIndex);
+        return catalog.build();
+    }
+
+    /**
+     * Adds the fields of each included index to the catalog, replacing those it had for the index.
+     */
+    static void read(JsonParser parser, EsqlFieldCatalog.Builder catalog, Predicate<String> includeIndex) {
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            String index = parser.getString();
+            if (!includeIndex.test(index)) {
+                skipValue(parser);
+                continue;
+            }
+            List<EsqlFieldCatalog.Field> fields = new ArrayList<>();
+            expect(parser, JsonParser.Event.START_OBJECT);
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                if (parser.getString().equals("mappings")) {
+                    readMapping(parser, catalog, fields);
+                } else {
+                    skipValue(parser);
+                }
+            }
+            catalog.add(index, fields);
+        }
+    }
+
+    /**
+     * Reads the cluster state response filtered to
+     * {@code {"metadata": {"indices": {"index": {"mapping_version": 3, "settings": {"index": {"uuid": "..."}}}}}}}
+     * into the version of the mapping of each index, as {@code uuid/mapping_version}. The uuid tells apart an index
+     * that was deleted and created again, whose mapping version starts over. No indices are filtered out as
+     * {@code {}}.
+     */
+    static Map<String, String> readMappingVersions(JsonParser parser) {
+        Map<String, String> versions = new HashMap<>();
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            if (!parser.getString().equals("metadata")) {
+                skipValue(parser);
+                continue;
+            }
+            expect(parser, JsonParser.Event.START_OBJECT);
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                if (!parser.getString().equals("indices")) {
+                    skipValue(parser);
+                    continue;
+                }
+                expect(parser, JsonParser.Event.START_OBJECT);
+                while (parser.next() == JsonParser.Event.KEY_NAME) {
+                    String index = parser.getString();
+                    versions.put(index, readMappingVersion(parser));
+                }
+            }
+        }
+        return versions;
+    }
+
+    private static String readMappingVersion(JsonParser parser) {
+        String mappingVersion = "";
+        String uuid = "";
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "mapping_version" -> {
+                    JsonParser.Event event = parser.next();
+                    if (event == JsonParser.Event.VALUE_NUMBER || event == JsonParser.Event.VALUE_STRING) {
+                        mappingVersion = parser.getString();
+                    } else {
+                        skip(parser, event);
+                    }
+                }
+                case "settings" -> uuid = readUuid(parser);
+                default -> skipValue(parser);
+            }
+        }
+        return uuid + "/" + mappingVersion;
+    }
+
+    // settings.index.uuid
+    private static String readUuid(JsonParser parser) {
+        String uuid = "";
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            if (!parser.getString().equals("index")) {
+                skipValue(parser);
+                continue;
+            }
+            expect(parser, JsonParser.Event.START_OBJECT);
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                if (!parser.getString().equals("uuid")) {
+                    skipValue(parser);
+                    continue;
+                }
+                JsonParser.Event event = parser.next();
+                if (event == JsonParser.Event.VALUE_STRING) {
+                    uuid = parser.getString();
+                } else {
+                    skip(parser, event);
+                }
+            }
+        }
+        return uuid;
+    }
+
+    private static void readMapping(JsonParser parser, EsqlFieldCatalog.Builder catalog,
+                                    List<EsqlFieldCatalog.Field> fields) {
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            if (parser.getString().equals("properties")) {
+                readProperties(parser, "", catalog, fields);
+            } else {
+                skipValue(parser);
+            }
+        }
+    }
+
+    private static void readProperties(JsonParser parser, String prefix, EsqlFieldCatalog.Builder catalog,
+                                       List<EsqlFieldCatalog.Field> fields) {
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            readField(parser, prefix + parser.getString(), catalog, fields);
+        }
+    }
+
+    private static void readField(JsonParser parser, String path, EsqlFieldCatalog.Builder catalog,
+                                  List<EsqlFieldCatalog.Field> fields) {
+        // the field comes before its multi-fields, whatever the order of the keys
+        int position = fields.size();
+        // object fields have no type, or the object or nested one
+        String type = "object";
+        boolean object = false;
+        expect(parser, JsonParser.Event.START_OBJECT);
+        while (parser.next() == JsonParser.Event.KEY_NAME) {
+            switch (parser.getString()) {
+                case "type" -> {
+                    JsonParser.Event event = parser.next();
+                    if (event == JsonParser.Event.VALUE_STRING) {
+                        type = parser.getString();
+                    } else {
+                        skip(parser, event);
+                    }
+                }
+                case "properties" -> {
+                    object = true;
+                    readProperties(parser, path + ".", catalog, fields);
+                }
+                case "fields" -> readProperties(parser, path + ".", catalog, fields);
+                default -> skipValue(parser);
+            }
+        }
+        if (!object && !type.equals("object") && !type.equals("nested")) {
+            fields.add(position, catalog.field(path, type));
+        }
+    }
+
+    private static void skipValue(JsonParser parser) {
+        skip(parser, parser.next());
+    }
+
+    private static void skip(JsonParser parser, JsonParser.Event event) {
+        switch (event) {
+            case START_OBJECT -> parser.skipObject();
+            case START_ARRAY -> parser.skipArray();
+            default -> {
+            }
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonParser.Event event) {
+        JsonParser.Event actual = parser.next();
+        if (actual != event) {
+            throw new JsonParsingException("Expected " + event + " in the mappings, got " + actual,
+                parser.getLocation());
+        }
+    }
+}
@@ -18,69 +18,362 @@
  */
 package co.elastic.plugin.connection;
 
-import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import co.elastic.clients.transport.rest5_client.Rest5ClientTransport;
+import co.elastic.clients.transport.rest5_client.low_level.Request;
+import co.elastic.clients.transport.rest5_client.low_level.Response;
+import co.elastic.clients.transport.rest5_client.low_level.Rest5Client;
 import co.elastic.plugin.settings.EsqlPluginSettings;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.concurrency.AppExecutorUtil;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonParser;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.message.BasicHeader;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
-public final class EsqlPluginQueryManager {
+public final class EsqlPluginQueryManager implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(EsqlPluginQueryManager.class);
+    // removing internal indices
+    private static final Predicate<String> INCLUDE_INDEX = x -> !x.startsWith(".internal") && !x.startsWith(".ds");
+    // the mapping version and uuid of every index, nothing else of the cluster state
+    private static final String MAPPING_VERSIONS = "/_cluster/state/metadata/*"
+        + "?filter_path=metadata.indices.*.mapping_version,metadata.indices.*.settings.index.uuid";
+    // well under the 4096 bytes of the default max initial line length of Elasticsearch
+    private static final int MAX_INDICES_LENGTH = 3000;
 
     ScheduledExecutorService scheduler = AppExecutorUtil.getAppScheduledExecutorService();
     ScheduledFuture currentTask;
 
     EsqlPluginSettings settings = ApplicationManager.getApplication().getService(EsqlPluginSettings.class);
 
-    private ConcurrentHashMap<String, List<String>> indicesAndFields = new ConcurrentHashMap<>();
+    private volatile EsqlFieldCatalog catalog = EsqlFieldCatalog.EMPTY;
+
+    // the server the indices and fields come from
+    private volatile String connection;
+
+    // shared by all the refreshes, so that its pooled connections are kept alive between them,
+    // and only built again when the connection settings change
+    private Rest5ClientTransport transport;
+    private String transportUrl;
+    private String transportApiKey;
+
+    // how long the last refresh took, and the size of the mappings it read
+    private volatile long lastRefreshMillis = -1;
+    private volatile long lastRefreshBytes = -1;
 
     public List<String> getIndices() {
-        return new ArrayList<>(indicesAndFields.keySet());
+        return catalog.indices();
     }
 
     public List<String> getFields(String indexName) {
-        List<String> result = indicesAndFields.get(indexName);
-        if (result == null) {
-            result = new ArrayList<>();
+        List<String> result = new ArrayList<>();
+        for (EsqlFieldCatalog.Field field : catalog.fields(indexName)) {
+            result.add(field.path);
         }
         return result;
     }
 
-    public void startQueryThreadPool() {
-        if (!settings.getServerUrl().isEmpty() && !settings.getApiKey().isEmpty()) {
-            if (currentTask != null) {
-                currentTask.cancel(true);
+    /**
+     * The fields of all the indices, with their types.
+     */
+    public EsqlFieldCatalog getFieldCatalog() {
+        return catalog;
+    }
+
+    public synchronized void startQueryThreadPool() {
+        if (currentTask != null) {
+            currentTask.cancel(true);
+            currentTask = null;
+        }
+        String serverUrl = settings.getServerUrl();
+        String apiKey = settings.getApiKey();
+        if (serverUrl.isEmpty() || apiKey.isEmpty()) {
+            closeTransport();
+            return;
+        }
+        if (!serverUrl.equals(connection)) {
+            catalog = EsqlFieldCatalog.EMPTY;
+            connection = serverUrl;
+        }
+        Path snapshot = snapshotFile(serverUrl);
+        Rest5ClientTransport transport = transport(serverUrl, apiKey);
+        currentTask = scheduler.scheduleWithFixedDelay(() -> {
+            // completing from the last known schema until the refresh is done
+            if (catalog.isEmpty()) {
+                loadSnapshot(serverUrl, snapshot);
             }
-            currentTask = scheduler.scheduleWithFixedDelay(() -> {
-                try (ElasticsearchClient client = ElasticsearchClient.of(b -> b
-                    .host(settings.serverUrl)
-                    .apiKey(settings.apiKey)
-                )) {
-                    List<String> indices = client.indices().get(g -> g.index("*"))
-                        .indices().keySet().stream()
-                        // removing internal indices
-                        .filter(x -> !x.startsWith(".internal") && !x.startsWith(".ds"))
-                        .toList();
-
-                    for (String index : indices) {
-                        TypeMapping mappings = client.indices().get(g -> g.index(index))
-                            .indices().get(index).mappings();
-                        if (mappings != null) {
-                            List<String> fields = mappings.properties().keySet().stream().toList();
-                            indicesAndFields.put(index, fields);
-                        }
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException("Elasticsearch query failed: " + e.getMessage(), e);
+            try {
+                EsqlFieldCatalog refreshed = refresh(serverUrl, transport);
+                if (refreshed != null) {
+                    saveSnapshot(snapshot, refreshed);
                 }
-            }, 0, settings.getRefreshInterval(), TimeUnit.SECONDS);
+            } catch (IOException | JsonException e) {
+                // thrown out of the task, it would cancel the refreshes to come, the next one tries again
+                LOG.warn("ES|QL schema refresh failed: " + e.getMessage());
+            }
+        }, 0, settings.getRefreshInterval(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (currentTask != null) {
+            currentTask.cancel(true);
+            currentTask = null;
+        }
+        closeTransport();
+    }
+
+    // built here rather than by ElasticsearchClient.of, to keep the low level client the requests are sent with
+    private Rest5ClientTransport transport(String serverUrl, String apiKey) {
+        if (transport == null || !serverUrl.equals(transportUrl) || !apiKey.equals(transportApiKey)) {
+            closeTransport();
+            Rest5Client restClient = Rest5Client.builder(URI.create(serverUrl))
+                .setDefaultHeaders(new Header[]{new BasicHeader("Authorization", "ApiKey " + apiKey)})
+                .build();
+            transport = new Rest5ClientTransport(restClient, new JacksonJsonpMapper());
+            transportUrl = serverUrl;
+            transportApiKey = apiKey;
+        }
+        return transport;
+    }
+
+    private void closeTransport() {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the Elasticsearch client: " + e.getMessage());
+        }
+        transport = null;
+        transportUrl = null;
+        transportApiKey = null;
+    }
+
+    /**
+     * Reads the fields of the indices that are new or whose mapping changed since the last refresh, keeping those
+     * of the others and dropping the deleted ones. The mapping versions of the indices come from the cluster state,
+     * which is small next to their mappings, so a refresh where nothing changed costs a single request. Without
+     * them (no monitor privilege, serverless) or a previous schema, all the mappings are read in a single request.
+     * The responses are parsed as they're read instead of building the whole mappings of every index.
+     *
+     * @return the fields read, null if they didn't change or the server changed since
+     */
+    private EsqlFieldCatalog refresh(String serverUrl, Rest5ClientTransport transport) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        Map<String, String> versions = new HashMap<>();
+        boolean versioned;
+        try {
+            bytes += get(transport, MAPPING_VERSIONS,
+                parser -> versions.putAll(EsqlMappingsReader.readMappingVersions(parser)));
+            versions.keySet().removeIf(INCLUDE_INDEX.negate());
+            versioned = true;
+        } catch (IOException e) {
+            LOG.debug("No ES|QL mapping versions, reading all the mappings: " + e.getMessage());
+            versioned = false;
+        }
+
+        EsqlFieldCatalog current = catalog;
+        EsqlFieldCatalog.Builder builder = new EsqlFieldCatalog.Builder();
+        String read;
+        if (!versioned || current.isEmpty()) {
+            bytes += get(transport, "/*/_mapping", parser -> EsqlMappingsReader.read(parser, builder, INCLUDE_INDEX));
+            read = "all";
+        } else {
+            Set<String> changed = new HashSet<>();
+            versions.forEach((index, version) -> {
+                if (!version.equals(current.version(index))) {
+                    changed.add(index);
+                }
+            });
+            long deleted = current.indices().stream().filter(index -> !versions.containsKey(index)).count();
+            if (changed.isEmpty() && deleted == 0) {
+                setLastRefresh(start, bytes);
+                LOG.info("ES|QL mappings of " + current.indices().size() + " indices unchanged, checked in "
+                         + lastRefreshMillis + " ms, " + lastRefreshBytes + " bytes");
+                return null;
+            }
+            builder.addAll(current, index -> versions.containsKey(index) && !changed.contains(index));
+            for (String indices : joinIndices(changed)) {
+                // the ones deleted since are left out
+                bytes += get(transport, "/" + indices + "/_mapping?ignore_unavailable=true",
+                    parser -> EsqlMappingsReader.read(parser, builder, INCLUDE_INDEX));
+            }
+            read = changed.size() + " changed, " + deleted + " deleted";
+        }
+        versions.forEach(builder::version);
+        EsqlFieldCatalog refreshed = builder.build();
+        if (!publish(serverUrl, refreshed)) {
+            return null;
+        }
+
+        setLastRefresh(start, bytes);
+        LOG.info("ES|QL mappings of " + refreshed.indices().size() + " indices (" + refreshed.schemaCount()
+                 + " distinct, " + read + ") read in " + lastRefreshMillis + " ms, " + lastRefreshBytes + " bytes");
+        return refreshed;
+    }
+
+    /**
+     * Replaces the fields with those read from the server, unless the settings were changed to another server
+     * meanwhile: cancelling a task doesn't stop a refresh that's already reading.
+     */
+    private synchronized boolean publish(String serverUrl, EsqlFieldCatalog fields) {
+        if (!serverUrl.equals(connection)) {
+            return false;
+        }
+        catalog = fields;
+        return true;
+    }
+
+    /**
+     * Sends a GET request and parses its response as it's read.
+     *
+     * @return how many bytes the response was
+     */
+    private static long get(Rest5ClientTransport transport, String endpoint, Consumer<JsonParser> read)
+        throws IOException {
+        Response response = transport.restClient().performRequest(new Request("GET", endpoint));
+        // released even if the response can't be parsed
+        try (HttpEntity entity = response.getEntity()) {
+            CountingInputStream content = new CountingInputStream(entity.getContent());
+            try (JsonParser parser = transport.jsonpMapper().jsonProvider().createParser(content)) {
+                read.accept(parser);
+            }
+            return content.count;
+        }
+    }
+
+    // comma separated, in as many parts as needed to keep the request lines short
+    private static List<String> joinIndices(Collection<String> indices) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder part = new StringBuilder();
+        for (String index : indices) {
+            String encoded = URLEncoder.encode(index, StandardCharsets.UTF_8);
+            if (!part.isEmpty() && part.length() + encoded.length() >= MAX_INDICES_LENGTH) {
+                parts.add(part.toString());
+                part.setLength(0);
+            }
+            if (!part.isEmpty()) {
+                part.append(',');
+            }
+            part.append(encoded);
+        }
+        if (!part.isEmpty()) {
+            parts.add(part.toString());
+        }
+        return parts;
+    }
+
+    private void setLastRefresh(long start, long bytes) {
+        lastRefreshMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastRefreshBytes = bytes;
+    }
+
+    // one file per server
+    private static Path snapshotFile(String serverUrl) {
+        UUID id = UUID.nameUUIDFromBytes(serverUrl.getBytes(StandardCharsets.UTF_8));
+        return PathManager.getSystemDir().resolve("esql").resolve("schema-" + id + ".bin");
+    }
+
+    private void loadSnapshot(String serverUrl, Path snapshot) {
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            EsqlFieldCatalog loaded = EsqlSchemaSnapshot.read(snapshot);
+            if (!publish(serverUrl, loaded)) {
+                return;
+            }
+            LOG.info("ES|QL schema snapshot of " + loaded.indices().size() + " indices loaded in "
+                     + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        } catch (IOException e) {
+            LOG.warn("Ignoring the ES|QL schema snapshot: " + e.getMessage());
+        }
+    }
+
+    private void saveSnapshot(Path snapshot, EsqlFieldCatalog fields) {
+        try {
+            EsqlSchemaSnapshot.write(snapshot, fields);
+        } catch (IOException e) {
+            // the next refresh tries again
+            LOG.warn("Could not save the ES|QL schema snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * How long the last refresh of the indices and fields took, -1 before the first one.
+     */
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * How many bytes of mapping versions and mappings the last refresh read, -1 before the first one.
+     */
+    public long getLastRefreshBytes() {
+        return lastRefreshBytes;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
         }
     }
 }
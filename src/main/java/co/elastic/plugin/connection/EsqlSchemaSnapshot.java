@@ -0,0 +1,168 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The field catalog of a cluster saved to a file, so that completion has the last known schema as soon as
+ * the IDE starts instead of waiting for the first refresh.
+ * <p>
+ * The file is a header (magic, format version, payload length, CRC32 of the payload) followed by the payload:
+ * the number of distinct field lists, then for each one its number of fields, their paths and types, its number
+ * of indices and their names and mapping versions (empty when unknown), every string as its UTF-8 length and
+ * bytes. Like the catalog, indices with the same fields share them in the file. It's rejected as a whole if any
+ * part of the header doesn't match, so a snapshot from another version of the plugin or a partial write is never
+ * half read.
+ */
+final class EsqlSchemaSnapshot {
+
+    // "ESQS"
+    static final int MAGIC = 0x45535153;
+    // 2: field types, and indices grouped by fields
+    // 3: mapping version of each index
+    static final int VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+
+    private EsqlSchemaSnapshot() {}
+
+    /**
+     * Writes the snapshot to a temporary file first, then moves it in place, so that a reader never sees a
+     * partial file.
+     */
+    static void write(Path file, EsqlFieldCatalog catalog) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeInt(catalog.schemas().size());
+        for (EsqlFieldCatalog.Schema schema : catalog.schemas()) {
+            payload.writeInt(schema.fields.size());
+            for (EsqlFieldCatalog.Field field : schema.fields) {
+                writeString(payload, field.path);
+                writeString(payload, field.type);
+            }
+            payload.writeInt(schema.indices.size());
+            for (String index : schema.indices) {
+                writeString(payload, index);
+                String version = catalog.version(index);
+                writeString(payload, version == null ? "" : version);
+            }
+        }
+        payload.flush();
+        byte[] content = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+            .putInt(MAGIC)
+            .putInt(VERSION)
+            .putInt(content.length)
+            .putInt((int) crc.getValue());
+
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.write(new ByteBuffer[]{header.flip(), ByteBuffer.wrap(content)});
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write}, or throws if the file isn't one of this format version,
+     * or was changed since.
+     */
+    static EsqlFieldCatalog read(Path file) throws IOException {
+        // read to the heap rather than mapped: Windows doesn't replace a file that's still mapped, which it
+        // would be until garbage collected, and everything is copied out of it anyway
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an ES|QL schema snapshot: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported ES|QL schema snapshot version " + version + ": " + file);
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length != buffer.remaining()) {
+                throw new IOException("Truncated ES|QL schema snapshot: " + file);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Corrupted ES|QL schema snapshot: " + file);
+            }
+
+            EsqlFieldCatalog.Builder catalog = new EsqlFieldCatalog.Builder();
+            int schemas = buffer.getInt();
+            for (int i = 0; i < schemas; i++) {
+                int count = buffer.getInt();
+                List<EsqlFieldCatalog.Field> fields = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    fields.add(catalog.field(readString(buffer), readString(buffer)));
+                }
+                // an immutable list, added as is to every index
+                List<EsqlFieldCatalog.Field> shared = List.copyOf(fields);
+                int indices = buffer.getInt();
+                for (int j = 0; j < indices; j++) {
+                    String index = readString(buffer);
+                    String indexVersion = readString(buffer);
+                    catalog.add(index, shared);
+                    if (!indexVersion.isEmpty()) {
+                        catalog.version(index, indexVersion);
+                    }
+                }
+            }
+            return catalog.build();
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            // a file shorter than the header, or a checksum matching by chance
+            throw new IOException("Corrupted ES|QL schema snapshot: " + file, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
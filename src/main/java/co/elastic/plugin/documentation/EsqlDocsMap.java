@@ -431,4 +431,8 @@ public final class EsqlDocsMap {
         }
         return null;
     }
+
+    public static @Nullable String getRawDoc(String command) {
+        return rawDocs.get(command);
+    }
 }
@@ -0,0 +1,72 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.index;
+
+import co.elastic.grammar.EsqlSourceQuery;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An ES|QL query of a file, as recorded by {@link EsqlQueryIndex}.
+ */
+public final class EsqlIndexedQuery {
+
+    public final EsqlSourceQuery.Kind kind;
+    // range of the literal in the file, including quotes
+    public final int literalStart;
+    public final int literalEnd;
+    // range of the query in the file
+    public final int start;
+    public final int end;
+    // index patterns of the FROM and TS commands
+    public final List<String> indices;
+    // fields referenced by the query
+    public final List<String> fields;
+
+    public EsqlIndexedQuery(EsqlSourceQuery.Kind kind, int literalStart, int literalEnd, int start, int end,
+                            List<String> indices, List<String> fields) {
+        this.kind = kind;
+        this.literalStart = literalStart;
+        this.literalEnd = literalEnd;
+        this.start = start;
+        this.end = end;
+        this.indices = List.copyOf(indices);
+        this.fields = List.copyOf(fields);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EsqlIndexedQuery other)) return false;
+        return kind == other.kind && literalStart == other.literalStart && literalEnd == other.literalEnd
+               && start == other.start && end == other.end
+               && indices.equals(other.indices) && fields.equals(other.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, literalStart, literalEnd, start, end, indices, fields);
+    }
+
+    @Override
+    public String toString() {
+        return kind + "[" + start + ", " + end + "] indices=" + indices + " fields=" + fields;
+    }
+}
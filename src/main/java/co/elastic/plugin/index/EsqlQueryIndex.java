@@ -0,0 +1,202 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.index;
+
+import co.elastic.grammar.EsqlMarkedLines;
+import co.elastic.grammar.EsqlQueryOutline;
+import co.elastic.grammar.EsqlSourceQuery;
+import co.elastic.grammar.EsqlSourceScanner;
+import co.elastic.plugin.annotator.EsqlAnnotator;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the ES|QL queries of the project: the "// ES|QL" marked Java text blocks and Kotlin raw strings,
+ * and the .esql files. The queries of a file are found from its text, so the index doesn't need a PSI tree.
+ * <p>
+ * Keys are the index patterns read by the queries, so the queries reading an index can be looked up directly,
+ * and every query is also recorded under {@link #ALL_QUERIES}.
+ */
+public class EsqlQueryIndex extends FileBasedIndexExtension<String, List<EsqlIndexedQuery>> {
+
+    public static final ID<String, List<EsqlIndexedQuery>> NAME = ID.create("co.elastic.esql.queries");
+
+    // can't be an index pattern
+    public static final String ALL_QUERIES = "";
+
+    @Override
+    public @NotNull ID<String, List<EsqlIndexedQuery>> getName() {
+        return NAME;
+    }
+
+    @Override
+    public @NotNull DataIndexer<String, List<EsqlIndexedQuery>, FileContent> getIndexer() {
+        return input -> {
+            EsqlSourceQuery.Kind kind = kind(input.getFile());
+            if (kind == null) {
+                return Map.of();
+            }
+            CharSequence text = input.getContentAsText();
+            // most sources have no ES|QL at all
+            if (kind != EsqlSourceQuery.Kind.PLAIN && !StringUtil.contains(text, EsqlMarkedLines.MARKER)) {
+                return Map.of();
+            }
+            return index(text, kind);
+        };
+    }
+
+    static Map<String, List<EsqlIndexedQuery>> index(CharSequence text, EsqlSourceQuery.Kind kind) {
+        Map<String, List<EsqlIndexedQuery>> queries = new HashMap<>();
+        for (EsqlSourceQuery query : EsqlSourceScanner.scan(text, kind)) {
+            EsqlQueryOutline outline = EsqlQueryOutline.of(text, query.start, query.end, EsqlAnnotator.ESQL_CONFIG);
+            EsqlIndexedQuery indexed = new EsqlIndexedQuery(query.kind, query.literalStart, query.literalEnd,
+                query.start, query.end, outline.indices, outline.fields);
+
+            queries.computeIfAbsent(ALL_QUERIES, k -> new ArrayList<>()).add(indexed);
+            for (String index : outline.indices) {
+                List<EsqlIndexedQuery> reading = queries.computeIfAbsent(index, k -> new ArrayList<>());
+                if (!reading.contains(indexed)) {
+                    reading.add(indexed);
+                }
+            }
+        }
+        return queries;
+    }
+
+    @Override
+    public @NotNull KeyDescriptor<String> getKeyDescriptor() {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @Override
+    public @NotNull DataExternalizer<List<EsqlIndexedQuery>> getValueExternalizer() {
+        return new QueriesExternalizer();
+    }
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public @NotNull FileBasedIndex.InputFilter getInputFilter() {
+        return file -> kind(file) != null;
+    }
+
+    @Override
+    public boolean dependsOnFileContent() {
+        return true;
+    }
+
+    /**
+     * All the queries of the files in the scope, by file.
+     */
+    public static Map<VirtualFile, List<EsqlIndexedQuery>> getQueries(@NotNull GlobalSearchScope scope) {
+        return getQueries(ALL_QUERIES, scope);
+    }
+
+    /**
+     * The queries reading the given index pattern, by file.
+     */
+    public static Map<VirtualFile, List<EsqlIndexedQuery>> getQueries(@NotNull String index,
+                                                                      @NotNull GlobalSearchScope scope) {
+        Map<VirtualFile, List<EsqlIndexedQuery>> queries = new LinkedHashMap<>();
+        FileBasedIndex.getInstance().processValues(NAME, index, null, (file, value) -> {
+            queries.put(file, value);
+            return true;
+        }, scope);
+        return queries;
+    }
+
+    private static EsqlSourceQuery.Kind kind(VirtualFile file) {
+        return EsqlSourceQuery.Kind.ofExtension(file.getExtension());
+    }
+
+    private static final class QueriesExternalizer implements DataExternalizer<List<EsqlIndexedQuery>> {
+
+        private static final EsqlSourceQuery.Kind[] KINDS = EsqlSourceQuery.Kind.values();
+
+        @Override
+        public void save(@NotNull DataOutput out, List<EsqlIndexedQuery> queries) throws IOException {
+            DataInputOutputUtil.writeINT(out, queries.size());
+            for (EsqlIndexedQuery query : queries) {
+                DataInputOutputUtil.writeINT(out, query.kind.ordinal());
+                DataInputOutputUtil.writeINT(out, query.literalStart);
+                DataInputOutputUtil.writeINT(out, query.literalEnd - query.literalStart);
+                DataInputOutputUtil.writeINT(out, query.start - query.literalStart);
+                DataInputOutputUtil.writeINT(out, query.end - query.start);
+                writeStrings(out, query.indices);
+                writeStrings(out, query.fields);
+            }
+        }
+
+        @Override
+        public List<EsqlIndexedQuery> read(@NotNull DataInput in) throws IOException {
+            int size = DataInputOutputUtil.readINT(in);
+            List<EsqlIndexedQuery> queries = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                EsqlSourceQuery.Kind kind = KINDS[DataInputOutputUtil.readINT(in)];
+                int literalStart = DataInputOutputUtil.readINT(in);
+                int literalEnd = literalStart + DataInputOutputUtil.readINT(in);
+                int start = literalStart + DataInputOutputUtil.readINT(in);
+                int end = start + DataInputOutputUtil.readINT(in);
+                queries.add(new EsqlIndexedQuery(kind, literalStart, literalEnd, start, end,
+                    readStrings(in), readStrings(in)));
+            }
+            return queries;
+        }
+
+        private static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+            DataInputOutputUtil.writeINT(out, strings.size());
+            for (String string : strings) {
+                IOUtil.writeUTF(out, string);
+            }
+        }
+
+        private static List<String> readStrings(DataInput in) throws IOException {
+            int size = DataInputOutputUtil.readINT(in);
+            List<String> strings = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                strings.add(IOUtil.readUTF(in));
+            }
+            return strings;
+        }
+    }
+}
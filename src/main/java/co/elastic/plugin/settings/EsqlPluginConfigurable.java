@@ -18,6 +18,8 @@
  */
 package co.elastic.plugin.settings;
 
+import co.elastic.grammar.completion.CandidatesCache;
+import co.elastic.grammar.completion.CompletionCoreApiKt;
 import co.elastic.plugin.EsqlIcon;
 import co.elastic.plugin.connection.EsqlPluginQueryManager;
 import com.intellij.openapi.application.ApplicationManager;
@@ -30,6 +32,7 @@ import org.jetbrains.annotations.NotNull;
 import javax.swing.*;
 import java.awt.*;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 
@@ -38,6 +41,7 @@ public class EsqlPluginConfigurable implements SearchableConfigurable {
     private JTextField urlField;
     private JPasswordField apiKeyField;
     private ComboBox refreshRateField;
+    private JSpinner completionCacheSizeField;
 
     private final Map<String, Integer> refreshRateMap = new HashMap<>();
 
@@ -68,11 +72,26 @@ public class EsqlPluginConfigurable implements SearchableConfigurable {
                 .map(Map.Entry::getKey)
                 .findFirst().get());
 
+        JLabel refreshStats = new JLabel(queryManager.getLastRefreshMillis() < 0 ? "Not refreshed yet"
+            : String.format(Locale.ROOT, "%d indices, %d KB of mappings read in %d ms",
+                queryManager.getIndices().size(), queryManager.getLastRefreshBytes() / 1024,
+                queryManager.getLastRefreshMillis()));
+
+        // 0 disables the cache
+        completionCacheSizeField =
+            new JSpinner(new SpinnerNumberModel(state.getCompletionCacheSize(), 0, 100_000, 64));
+
+        CandidatesCache cache = CompletionCoreApiKt.getCandidatesCache();
+        JLabel completionCacheStats = new JLabel(String.format(Locale.ROOT, "%d entries, %.0f%% hits (%d/%d)",
+            cache.getSize(), cache.getHitRatio() * 100, cache.getHitCount(), cache.getHitCount() + cache.getMissCount()));
 
         mainPanel = FormBuilder.createFormBuilder()
             .addLabeledComponent("URL", urlField)
             .addLabeledComponent("API key", apiKeyField)
             .addLabeledComponent("Refresh rate", refreshRateField)
+            .addComponentToRightColumn(refreshStats)
+            .addLabeledComponent("Completion cache size", completionCacheSizeField)
+            .addComponentToRightColumn(completionCacheStats)
             .getPanel();
 
         JPanel outerPanel = new JPanel(new BorderLayout());
@@ -87,7 +106,7 @@ public class EsqlPluginConfigurable implements SearchableConfigurable {
                                          .map(x -> refreshRateMap.get(x.toString()))
                                          .orElse(60) != state.getRefreshInterval();
         return !urlField.getText().equals(state.serverUrl) || !apiKeyField.getText().equals(state.apiKey)
-               || refreshRateChanged;
+               || refreshRateChanged || (int) completionCacheSizeField.getValue() != state.getCompletionCacheSize();
     }
 
     @Override
@@ -99,6 +118,8 @@ public class EsqlPluginConfigurable implements SearchableConfigurable {
             .map(x -> refreshRateMap.get(x.toString()))
             .orElse(60);
         state.setRefreshInterval(refreshRate);
+        state.setCompletionCacheSize((int) completionCacheSizeField.getValue());
+        CompletionCoreApiKt.getCandidatesCache().setMaxSize(state.getCompletionCacheSize());
 
         queryManager.startQueryThreadPool();
     }
@@ -108,6 +129,7 @@ public class EsqlPluginConfigurable implements SearchableConfigurable {
         urlField.setText(state.serverUrl);
         apiKeyField.setText(state.apiKey);
         refreshRateField.setSelectedItem(state.getRefreshInterval());
+        completionCacheSizeField.setValue(state.getCompletionCacheSize());
     }
 
     public Icon getIcon() {
@@ -18,6 +18,7 @@
  */
 package co.elastic.plugin.settings;
 
+import co.elastic.grammar.completion.CompletionCoreApiKt;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
@@ -31,6 +32,7 @@ public class EsqlPluginSettings implements PersistentStateComponent<EsqlPluginSe
     public String serverUrl = "";
     public String apiKey = "";
     public int refreshInterval = 60;
+    public int completionCacheSize = CompletionCoreApiKt.DEFAULT_CANDIDATES_CACHE_SIZE;
 
     @Override
     public EsqlPluginSettings getState() {
@@ -65,4 +67,12 @@ public class EsqlPluginSettings implements PersistentStateComponent<EsqlPluginSe
     public void setRefreshInterval(int refreshInterval) {
         this.refreshInterval = refreshInterval;
     }
+
+    public int getCompletionCacheSize() {
+        return completionCacheSize;
+    }
+
+    public void setCompletionCacheSize(int completionCacheSize) {
+        this.completionCacheSize = completionCacheSize;
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class EsqlCompletionScopeTest {
+
+    @Test
+    public void testCommandAndIndices() {
+        EsqlCompletionScope scope = scope("FROM employees, cluster:logs-*, \"quoted\" | WHERE (a > 1) AND ");
+        Assert.assertEquals(EsqlBaseLexer.WHERE, scope.command);
+        Assert.assertEquals(List.of("employees", "cluster:logs-*", "quoted"), scope.indices);
+        Assert.assertTrue(scope.indexFields);
+
+        scope = scope("FROM logs, ");
+        Assert.assertEquals(EsqlBaseLexer.FROM, scope.command);
+        Assert.assertFalse(scope.metadata);
+        Assert.assertEquals(List.of("logs"), scope.indices);
+
+        // a pipe inside a function call doesn't start a command
+        Assert.assertEquals(EsqlBaseLexer.EVAL, scope("ROW a = 1 | EVAL b = CONCAT(\"|\", ").command);
+        Assert.assertEquals(Token.INVALID_TYPE, scope("  ").command);
+    }
+
+    @Test
+    public void testTrailingPipe() {
+        // the next command is still to be typed
+        EsqlCompletionScope scope = scope("FROM logs | ");
+        Assert.assertEquals(Token.INVALID_TYPE, scope.command);
+        Assert.assertEquals(List.of("logs"), scope.indices);
+
+        scope = scope("FROM logs | EVAL x = 1 | ");
+        Assert.assertEquals(Token.INVALID_TYPE, scope.command);
+        Assert.assertEquals(List.of("x"), scope.columns);
+    }
+
+    @Test
+    public void testMetadata() {
+        EsqlCompletionScope scope = scope("FROM logs METADATA _index, ");
+        Assert.assertEquals(EsqlBaseLexer.FROM, scope.command);
+        Assert.assertTrue(scope.metadata);
+        Assert.assertEquals(List.of("_index"), scope.columns);
+
+        scope = scope("FROM logs METADATA _index | SORT ");
+        Assert.assertFalse(scope.metadata);
+        Assert.assertEquals(List.of("_index"), scope.columns);
+    }
+
+    @Test
+    public void testColumns() {
+        String query = "FROM employees METADATA _id"
+                       + " | EVAL d = ROUND(salary / 2), host.name = \"x\""
+                       + " | RENAME emp_no AS id, d AS half"
+                       + " | DROP _*";
+
+        // renaming a field of the index makes it a column of the query
+        EsqlCompletionScope scope = scope(query + " | WHERE ");
+        Assert.assertEquals(List.of("host.name", "id", "half"), scope.columns);
+        Assert.assertTrue(scope.indexFields);
+
+        // only what STATS outputs is left once it's over, not while it's being written
+        scope = scope(query + " | STATS c = COUNT(*) BY half, dept");
+        Assert.assertEquals(List.of("host.name", "id", "half"), scope.columns);
+        scope = scope(query + " | STATS c = COUNT(*) BY half, dept | SORT ");
+        Assert.assertEquals(List.of("c", "half", "dept"), scope.columns);
+        Assert.assertFalse(scope.indexFields);
+
+        scope = scope(query + " | KEEP h*, emp_no | EVAL ");
+        Assert.assertEquals(List.of("host.name", "half", "emp_no"), scope.columns);
+        Assert.assertFalse(scope.indexFields);
+
+        Assert.assertFalse(scope("ROW a = 1, b = 2 | EVAL ").indexFields);
+        Assert.assertEquals(List.of("a", "b"), scope("ROW a = 1, b = 2 | EVAL ").columns);
+    }
+
+    @Test
+    public void testPatterns() {
+        Assert.assertTrue(EsqlCompletionScope.matches("logs-*", "logs-2025"));
+        Assert.assertTrue(EsqlCompletionScope.matches("*name*", "host.name"));
+        Assert.assertTrue(EsqlCompletionScope.matches("a*b*c", "abbc"));
+        Assert.assertFalse(EsqlCompletionScope.matches("logs-*", "metrics"));
+        Assert.assertFalse(EsqlCompletionScope.matches("logs", "logs-2025"));
+    }
+
+    private static EsqlCompletionScope scope(String query) {
+        return EsqlCompletionScope.of(EsqlLexedText.lex(query, 0, query.length(), null, null, () -> {}).tokens());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class EsqlLexedTextTest {
+
+    private static final Runnable NOT_CANCELED = () -> {};
+
+    @Test
+    public void testTypingMatchesFullLexing() {
+        int reused = 0;
+        for (String query : EsqlParserWarmUp.corpus()) {
+            // typing the query one character at a time
+            EsqlLexedText previous = null;
+            for (int i = 0; i <= query.length(); i++) {
+                EsqlLexedText lexed = EsqlLexedText.lex(query, 0, i, null, previous, NOT_CANCELED);
+                assertSameTokens(EsqlLexedText.lex(query, 0, i, null, null, NOT_CANCELED), lexed);
+                reused += lexed.reusedTokens();
+                previous = lexed;
+            }
+        }
+        Assert.assertTrue(reused > 0);
+    }
+
+    @Test
+    public void testEditsResumeInTheRightMode() {
+        String[][] edits = {
+            // inside the FROM mode, with the pipe popping it
+            {"FROM logs | WHERE a > 1", "FROM logs-*, metrics | WHERE a > 1"},
+            // ENRICH and its policy mode, then back to expressions
+            {"FROM a | ENRICH p ON x WITH y | EVAL b = 1", "FROM a | ENRICH p ON x WITH y, z | EVAL b = 1"},
+            // nested modes of FORK branches
+            {"FROM a | FORK (WHERE x > 1 | LIMIT 2) (SORT y)", "FROM a | FORK (WHERE x > 10 | LIMIT 2) (SORT y)"},
+            // a keyword getting longer, FRO isn't a command
+            {"FRO", "FROM"},
+            // a string that isn't closed anymore
+            {"ROW a = \"x\" | KEEP a", "ROW a = \"x | KEEP a"},
+        };
+        for (String[] edit : edits) {
+            EsqlLexedText before = EsqlLexedText.lex(edit[0], 0, edit[0].length(), null, null, NOT_CANCELED);
+            EsqlLexedText after = EsqlLexedText.lex(edit[1], 0, edit[1].length(), null, before, NOT_CANCELED);
+            assertSameTokens(EsqlLexedText.lex(edit[1], 0, edit[1].length(), null, null, NOT_CANCELED), after);
+            // and back
+            assertSameTokens(before, EsqlLexedText.lex(edit[0], 0, edit[0].length(), null, after, NOT_CANCELED));
+        }
+
+        EsqlLexedText before = EsqlLexedText.lex(edits[2][0], 0, edits[2][0].length(), null, null, NOT_CANCELED);
+        EsqlLexedText after = EsqlLexedText.lex(edits[2][1], 0, edits[2][1].length(), null, before, NOT_CANCELED);
+        // all the tokens before the number that changed, whitespace included
+        Assert.assertEquals(15, after.reusedTokens());
+    }
+
+    @Test
+    public void testGrammarVariantIsNotMixed() {
+        String query = "FROM a | INLINESTATS c = COUNT(*)";
+        EsqlConfig release = new EsqlConfig();
+        release.setDevVersion(false);
+
+        EsqlLexedText dev = EsqlLexedText.lex(query, 0, query.length(), null, null, NOT_CANCELED);
+        EsqlLexedText released = EsqlLexedText.lex(query, 0, query.length(), release, dev, NOT_CANCELED);
+        Assert.assertEquals(0, released.reusedTokens());
+        assertSameTokens(EsqlLexedText.lex(query, 0, query.length(), release, null, NOT_CANCELED), released);
+    }
+
+    @Test
+    public void testTokensDontKeepTheLexer() {
+        String query = "FROM logs | WHERE a > 1";
+        EsqlLexedText before = EsqlLexedText.lex(query, 0, 11, null, null, NOT_CANCELED);
+        EsqlLexedText after = EsqlLexedText.lex(query, 0, query.length(), null, before, NOT_CANCELED);
+        Assert.assertTrue(after.reusedTokens() > 0);
+        // kept in the editor, they would keep the pooled lexer of the session they were lexed in
+        for (Token token : after.tokens()) {
+            Assert.assertNull(token.getTokenSource());
+            Assert.assertNotNull(token.getInputStream());
+        }
+    }
+
+    private static void assertSameTokens(EsqlLexedText expected, EsqlLexedText actual) {
+        Assert.assertEquals(expected.text(), actual.text());
+        List<Token> expectedTokens = expected.tokens();
+        List<Token> actualTokens = actual.tokens();
+        Assert.assertEquals(expected.text(), expectedTokens.size(), actualTokens.size());
+        for (int i = 0; i < expectedTokens.size(); i++) {
+            Token e = expectedTokens.get(i);
+            Token a = actualTokens.get(i);
+            String message = expected.text() + " at token " + i;
+            Assert.assertEquals(message, e.getType(), a.getType());
+            Assert.assertEquals(message, e.getChannel(), a.getChannel());
+            Assert.assertEquals(message, e.getText(), a.getText());
+            Assert.assertEquals(message, e.getStartIndex(), a.getStartIndex());
+            Assert.assertEquals(message, e.getLine(), a.getLine());
+            Assert.assertEquals(message, e.getCharPositionInLine(), a.getCharPositionInLine());
+            Assert.assertEquals(message, i, a.getTokenIndex());
+        }
+    }
+}
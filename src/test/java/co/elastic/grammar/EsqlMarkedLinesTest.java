@@ -0,0 +1,65 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EsqlMarkedLinesTest {
+
+    @Test
+    public void testJavaMarker() {
+        EsqlMarkedLines lines = EsqlMarkedLines.of("""
+            class A {
+                // ES|QL
+                String q = \"""
+                    FROM logs\""";
+                // not ES|QL
+                String r = \"""
+                    FROM logs\""";
+            }""");
+
+        Assert.assertTrue(lines.isMarked(2, false));
+        Assert.assertFalse(lines.isMarked(1, false));
+        Assert.assertFalse(lines.isMarked(5, false));
+        Assert.assertFalse(lines.isMarked(-1, false));
+    }
+
+    @Test
+    public void testKotlinMarker() {
+        EsqlMarkedLines lines = EsqlMarkedLines.of("""
+            // ES|QL
+            val a = 1
+
+            // ES|QL
+            val q = \"""
+            val b = 2
+            // ES|QL
+            val r = \"""
+            """);
+
+        // two lines below the comment
+        Assert.assertTrue(lines.isMarked(2, true));
+        // right below the comment, only after a blank line
+        Assert.assertTrue(lines.isMarked(1, true));
+        Assert.assertTrue(lines.isMarked(4, true));
+        Assert.assertFalse(lines.isMarked(7, true));
+        Assert.assertTrue(lines.isMarked(7, false));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+public class EsqlParserWarmUpTest {
+
+    @Test
+    public void testCorpusIsValidAndCoversAllCommands() {
+
+        List<String> errors = new ArrayList<>();
+        BitSet commands = new BitSet();
+        for (String query : EsqlParserWarmUp.corpus()) {
+            try (EsqlParserSession session = EsqlParserSession.acquire(new CharSequenceCharStream(query), null)) {
+                session.addErrorListener(new BaseErrorListener() {
+                    @Override
+                    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                            int charPositionInLine, String msg, RecognitionException e) {
+                        errors.add(line + ":" + charPositionInLine + " " + msg + " in " + query);
+                    }
+                });
+                session.singleStatement();
+                for (Token token : session.tokens().getTokens()) {
+                    if (EsqlTokens.isCommand(token.getType())) {
+                        commands.set(token.getType());
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(List.of(), errors);
+
+        List<String> missing = new ArrayList<>();
+        for (int type = 0; type <= EsqlBaseLexer.VOCABULARY.getMaxTokenType(); type++) {
+            // FULL JOIN has a token but isn't part of the join command yet
+            if (EsqlTokens.isCommand(type) && !commands.get(type) && type != EsqlBaseLexer.DEV_JOIN_FULL) {
+                missing.add(EsqlBaseLexer.VOCABULARY.getSymbolicName(type));
+            }
+        }
+        Assert.assertEquals(List.of(), missing);
+    }
+
+    @Test
+    public void testCancellation() {
+        RuntimeException cancel = new RuntimeException("canceled");
+        try {
+            EsqlParserWarmUp.run(null, () -> {
+                throw cancel;
+            });
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertSame(cancel, e);
+        }
+        Assert.assertTrue(EsqlParserWarmUp.run(null, () -> {}) > 0);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class EsqlSourceScannerTest {
+
+    @Test
+    public void testJavaTextBlocks() {
+        String text = "class A {\n"
+                      + "    // ES|QL\n"
+                      + "    String q = \"\"\"\n"
+                      + "        FROM logs\n"
+                      + "        | WHERE a > 1\n"
+                      + "        \"\"\";\n"
+                      + "    String n = \"\"\"\n"
+                      + "        FROM unmarked\"\"\";\n"
+                      + "    // ES|QL\n"
+                      + "    String r = \"\"\"\n"
+                      + "        ROW a = \"\\\"\"\"\n"
+                      + "        \"\"\";\n"
+                      + "}\n";
+
+        List<EsqlSourceQuery> queries = EsqlSourceScanner.scan(text, EsqlSourceQuery.Kind.JAVA);
+
+        Assert.assertEquals(2, queries.size());
+        Assert.assertEquals("FROM logs\n        | WHERE a > 1", query(text, queries.get(0)));
+        Assert.assertEquals("\"\"\"", text.substring(queries.get(0).literalStart, queries.get(0).literalStart + 3));
+        // the escaped quotes don't close the text block
+        Assert.assertEquals("ROW a = \"\\\"\"\"", query(text, queries.get(1)));
+    }
+
+    @Test
+    public void testKotlinRawStrings() {
+        String text = "// ES|QL\n\nval q = \"\"\"FROM k\"\"\"\"\n";
+
+        List<EsqlSourceQuery> queries = EsqlSourceScanner.scan(text, EsqlSourceQuery.Kind.KOTLIN);
+
+        Assert.assertEquals(1, queries.size());
+        // the extra quote belongs to the string
+        Assert.assertEquals("FROM k\"", query(text, queries.get(0)));
+        Assert.assertEquals(text.length() - 1, queries.get(0).literalEnd);
+    }
+
+    @Test
+    public void testPlainText() {
+        String text = "\n  FROM logs | LIMIT 1\n\n";
+
+        List<EsqlSourceQuery> queries = EsqlSourceScanner.scan(text, EsqlSourceQuery.Kind.PLAIN);
+
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals("FROM logs | LIMIT 1", query(text, queries.get(0)));
+        Assert.assertTrue(EsqlSourceScanner.scan(" \n ", EsqlSourceQuery.Kind.PLAIN).isEmpty());
+    }
+
+    @Test
+    public void testOutline() {
+        String query = "FROM employees, cluster:logs-*, \"quoted\" METADATA _index"
+                       + " | WHERE host.name == \"x\" AND `weird``name` > 1"
+                       + " | EVAL d = ROUND(salary / 2)"
+                       + " | RENAME emp_no AS id"
+                       + " | STATS c = COUNT(*) BY d, dept"
+                       + " | KEEP id, first_*";
+
+        EsqlQueryOutline outline = EsqlQueryOutline.of(query, 0, query.length(), new EsqlConfig());
+
+        Assert.assertEquals(List.of("employees", "cluster:logs-*", "quoted"), outline.indices);
+        // functions and the names the query defines itself aren't fields
+        Assert.assertEquals(List.of("host.name", "weird`name", "salary", "emp_no", "dept", "first_*"), outline.fields);
+    }
+
+    private static String query(String text, EsqlSourceQuery query) {
+        return text.substring(query.start, query.end);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.benchmark;
+
+import co.elastic.grammar.CharSequenceCharStream;
+import co.elastic.grammar.EsqlBaseLexer;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.MEASURED_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.WARMUP_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.format;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.nanosPerQuery;
+
+/**
+ * Compares the memory allocated to lex a query embedded in a source file, when the query is first copied
+ * out of the file and converted through bytes, against reading it in place with {@link CharSequenceCharStream}.
+ */
+class CharStreamAllocationBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static void run(List<String> corpus) {
+        // the queries as text blocks in a source file, like the editor document the annotator reads from
+        StringBuilder file = new StringBuilder("class Queries {\n");
+        Map<String, int[]> ranges = new IdentityHashMap<>();
+        for (String query : corpus) {
+            file.append("    // esql\n    String q = \"\"\"\n");
+            ranges.put(query, new int[]{file.length(), file.length() + query.length()});
+            file.append(query).append("\"\"\";\n");
+        }
+        file.append("}\n");
+
+        System.out.println("char stream allocation, " + corpus.size() + " queries, lexing only");
+        System.out.println("  stream         bytes/query   time (us/query)");
+
+        measure("bytes copy", corpus, query -> {
+            int[] range = ranges.get(query);
+            String text = file.subSequence(range[0], range[1]).toString();
+            InputStream stream = new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+            try {
+                lex(CharStreams.fromStream(stream, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        measure("in place", corpus, query -> {
+            int[] range = ranges.get(query);
+            lex(new CharSequenceCharStream(file, range[0], range[1]));
+        });
+    }
+
+    private static void measure(String name, List<String> corpus, EsqlBenchmarks.QueryBody body) {
+        nanosPerQuery(corpus, WARMUP_ROUNDS, body);
+
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        double nanos = nanosPerQuery(corpus, MEASURED_ROUNDS, body);
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        double bytes = allocated / (double) (MEASURED_ROUNDS * corpus.size());
+
+        System.out.printf("  %-14s %11s %17s%n", name, format(bytes), format(nanos / 1000));
+    }
+
+    private static void lex(CharStream input) {
+        EsqlBaseLexer lexer = new EsqlBaseLexer(input);
+        lexer.removeErrorListeners();
+        new CommonTokenStream(lexer).fill();
+    }
+}
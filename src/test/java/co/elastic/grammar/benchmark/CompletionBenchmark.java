@@ -0,0 +1,84 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.benchmark;
+
+import co.elastic.grammar.completion.CandidatesCache;
+import co.elastic.grammar.completion.CompletionCoreApiKt;
+
+import java.util.List;
+
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.MEASURED_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.WARMUP_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.format;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.nanosPerQuery;
+
+/**
+ * Completion latency at the end of the corpus queries, and how it grows with the length of the query:
+ * the time per command should stay flat as commands are added. The candidates cache is disabled for those,
+ * and measured on its own over the corpus, where every completion after the first round is a hit.
+ */
+class CompletionBenchmark {
+
+    private static final int[] COMMANDS = {2, 4, 8, 16, 32};
+
+    static void run(List<String> corpus) {
+        List<String> prefixes = corpus.stream().map(query -> query + " ").toList();
+        System.out.println("completion, " + corpus.size() + " queries");
+
+        CandidatesCache cache = CompletionCoreApiKt.getCandidatesCache();
+        int cacheSize = cache.getMaxSize();
+        cache.setMaxSize(0);
+        try {
+            nanosPerQuery(prefixes, WARMUP_ROUNDS / 10, CompletionBenchmark::complete);
+            double nanos = nanosPerQuery(prefixes, MEASURED_ROUNDS / 10, CompletionBenchmark::complete);
+            System.out.println("  corpus           " + format(nanos / 1000) + " us/completion");
+
+            for (int commands : COMMANDS) {
+                List<String> query = List.of(query(commands));
+                nanosPerQuery(query, WARMUP_ROUNDS / 10, CompletionBenchmark::complete);
+                double perQuery = nanosPerQuery(query, MEASURED_ROUNDS / 10, CompletionBenchmark::complete);
+                System.out.println("  " + String.format("%2d", commands) + " commands      " + format(perQuery / 1000)
+                                   + " us/completion, " + format(perQuery / 1000 / commands) + " us/command");
+            }
+        } finally {
+            cache.setMaxSize(cacheSize);
+        }
+
+        cache.clear();
+        nanosPerQuery(prefixes, WARMUP_ROUNDS / 10, CompletionBenchmark::complete);
+        double cached = nanosPerQuery(prefixes, MEASURED_ROUNDS / 10, CompletionBenchmark::complete);
+        System.out.println("  corpus, cached   " + format(cached / 1000) + " us/completion, "
+                           + String.format("%.0f", cache.getHitRatio() * 100) + "% hits");
+    }
+
+    // FROM logs | EVAL a1 = a0 + 1 | WHERE a1 > 1 | ... | EVAL x =
+    private static String query(int commands) {
+        StringBuilder query = new StringBuilder("FROM logs");
+        for (int i = 1; i < commands; i++) {
+            query.append(i % 2 == 1
+                ? " | EVAL a" + i + " = TO_LONG(a" + (i - 1) + ") * 2 + 1"
+                : " | WHERE a" + (i - 1) + " > 10 AND host.name LIKE \"web-*\"");
+        }
+        return query.append(" | EVAL x = ").toString();
+    }
+
+    private static void complete(String query) {
+        CompletionCoreApiKt.completions(query);
+    }
+}
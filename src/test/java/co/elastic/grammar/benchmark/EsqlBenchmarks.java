@@ -0,0 +1,91 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Entry point for the micro benchmarks, run with {@code gradle benchmark} or {@code gradle benchmark -Pbenchmark=name}.
+ * Numbers are only meant to compare approaches against each other on the same machine.
+ */
+public class EsqlBenchmarks {
+
+    static final int WARMUP_ROUNDS = 200;
+    static final int MEASURED_ROUNDS = 500;
+
+    public static void main(String[] args) throws IOException {
+        String which = args.length > 0 ? args[0] : "all";
+        List<String> corpus = corpus();
+
+        if (which.equals("all") || which.equals("prediction")) {
+            PredictionModeBenchmark.run(corpus);
+        }
+        if (which.equals("all") || which.equals("allocation")) {
+            CharStreamAllocationBenchmark.run(corpus);
+        }
+        if (which.equals("all") || which.equals("warmup")) {
+            WarmUpBenchmark.run(corpus);
+        }
+        if (which.equals("all") || which.equals("completion")) {
+            CompletionBenchmark.run(corpus);
+        }
+    }
+
+    /**
+     * Real world queries, separated by blank lines.
+     */
+    static List<String> corpus() throws IOException {
+        try (InputStream in = EsqlBenchmarks.class.getResourceAsStream("/benchmark/queries.esql")) {
+            if (in == null) {
+                throw new IOException("benchmark corpus not found");
+            }
+            String content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return Arrays.stream(content.split("\\n\\s*\\n"))
+                .map(String::trim)
+                .filter(query -> !query.isEmpty())
+                .toList();
+        }
+    }
+
+    /**
+     * Runs the body over the whole corpus for a number of rounds and returns the average time per query, in ns.
+     */
+    static double nanosPerQuery(List<String> corpus, int rounds, QueryBody body) {
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (String query : corpus) {
+                body.run(query);
+            }
+        }
+        return (System.nanoTime() - start) / (double) (rounds * corpus.size());
+    }
+
+    static String format(double value) {
+        return String.format(Locale.ROOT, "%,.1f", value);
+    }
+
+    interface QueryBody {
+        void run(String query);
+    }
+}
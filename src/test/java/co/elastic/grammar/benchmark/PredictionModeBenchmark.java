@@ -0,0 +1,93 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.benchmark;
+
+import co.elastic.grammar.EsqlBaseLexer;
+import co.elastic.grammar.EsqlBaseParser;
+import co.elastic.grammar.EsqlParsing;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.List;
+
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.MEASURED_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.WARMUP_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.format;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.nanosPerQuery;
+
+/**
+ * Compares parsing with full LL prediction against the SLL first, LL on failure, approach used for validation.
+ */
+class PredictionModeBenchmark {
+
+    static void run(List<String> corpus) {
+        long fallbacks = corpus.stream().filter(query -> !parsesWithSll(query)).count();
+        System.out.println("prediction mode, " + corpus.size() + " queries, " + fallbacks + " needing the LL fallback");
+        System.out.println("  mode           cold (us/query)   warm (us/query)");
+
+        measure("LL", corpus, PredictionModeBenchmark::parseLL);
+        measure("SLL then LL", corpus, PredictionModeBenchmark::parseTwoStage);
+    }
+
+    private static void measure(String name, List<String> corpus, EsqlBenchmarks.QueryBody body) {
+        // cold numbers start from empty DFA caches, like the first validation after the IDE starts
+        clearDfa();
+        double cold = nanosPerQuery(corpus, 1, body) / 1000;
+        nanosPerQuery(corpus, WARMUP_ROUNDS, body);
+        double warm = nanosPerQuery(corpus, MEASURED_ROUNDS, body) / 1000;
+        System.out.printf("  %-14s %15s %17s%n", name, format(cold), format(warm));
+    }
+
+    private static EsqlBaseParser parser(String query) {
+        EsqlBaseLexer lexer = new EsqlBaseLexer(CharStreams.fromString(query));
+        lexer.removeErrorListeners();
+        EsqlBaseParser parser = new EsqlBaseParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        parser.setBuildParseTree(false);
+        return parser;
+    }
+
+    private static void parseLL(String query) {
+        parser(query).singleStatement();
+    }
+
+    private static void parseTwoStage(String query) {
+        EsqlParsing.singleStatement(parser(query));
+    }
+
+    private static boolean parsesWithSll(String query) {
+        EsqlBaseParser parser = parser(query);
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            parser.singleStatement();
+            return true;
+        } catch (ParseCancellationException e) {
+            return false;
+        }
+    }
+
+    private static void clearDfa() {
+        new EsqlBaseLexer(null).getInterpreter().clearDFA();
+        new EsqlBaseParser(null).getInterpreter().clearDFA();
+    }
+}
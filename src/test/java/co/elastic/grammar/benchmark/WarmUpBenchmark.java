@@ -0,0 +1,68 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.benchmark;
+
+import co.elastic.grammar.CharSequenceCharStream;
+import co.elastic.grammar.EsqlBaseLexer;
+import co.elastic.grammar.EsqlBaseParser;
+import co.elastic.grammar.EsqlParserSession;
+import co.elastic.grammar.EsqlParserWarmUp;
+
+import java.util.List;
+
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.WARMUP_ROUNDS;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.format;
+import static co.elastic.grammar.benchmark.EsqlBenchmarks.nanosPerQuery;
+
+/**
+ * Time of the first parse of each query after startup, with and without parsing the warm-up corpus first.
+ */
+class WarmUpBenchmark {
+
+    static void run(List<String> corpus) {
+        System.out.println("parser warm-up, " + corpus.size() + " queries parsed once");
+
+        // warm the JIT first, so that only the state of the DFA caches differs between the two runs
+        nanosPerQuery(corpus, WARMUP_ROUNDS, WarmUpBenchmark::parse);
+        EsqlParserWarmUp.run(null, () -> {});
+
+        clearDfa();
+        double cold = nanosPerQuery(corpus, 1, WarmUpBenchmark::parse) / 1000;
+
+        clearDfa();
+        long warmUp = EsqlParserWarmUp.run(null, () -> {});
+        double warm = nanosPerQuery(corpus, 1, WarmUpBenchmark::parse) / 1000;
+
+        System.out.println("  warm-up          " + format(warmUp / 1000_000.0) + " ms");
+        System.out.println("  first parse      " + format(cold) + " us/query without warm-up, "
+                           + format(warm) + " us/query after it");
+    }
+
+    private static void parse(String query) {
+        try (EsqlParserSession session = EsqlParserSession.acquire(new CharSequenceCharStream(query), null)) {
+            session.parser().setBuildParseTree(false);
+            session.singleStatement();
+        }
+    }
+
+    private static void clearDfa() {
+        new EsqlBaseLexer(null).getInterpreter().clearDFA();
+        new EsqlBaseParser(null).getInterpreter().clearDFA();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.completion;
+
+import co.elastic.grammar.EsqlBaseLexer;
+import co.elastic.grammar.EsqlConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CodeCompletionCoreTest {
+
+    private static final List<String> QUERIES = List.of(
+        "FROM logs | ",
+        "FROM",
+        "ROW a = 1 | EVAL b = ",
+        "FROM logs | WHERE a > 1 | STATS c = COUNT(*) BY ",
+        "FROM logs | LOOKUP JOIN hosts ON "
+    );
+
+    @Test
+    public void testConcurrentCompletions() throws Exception {
+        List<Set<Integer>> expected = new ArrayList<>();
+        for (String query : QUERIES) {
+            expected.add(CompletionCoreApiKt.completions(query));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Set<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                String query = QUERIES.get(i % QUERIES.size());
+                futures.add(executor.submit(() -> CompletionCoreApiKt.completions(query)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Assert.assertEquals(expected.get(i % QUERIES.size()), futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFollowSetsPerGrammarVariant() {
+        EsqlConfig release = new EsqlConfig();
+        release.setDevVersion(false);
+        CompletionCoreApiKt.precomputeFollowSets(release);
+        CompletionCoreApiKt.precomputeFollowSets(null);
+
+        // the dev only commands are only offered with the dev grammar, whichever variant was cached first
+        Set<Integer> dev = CompletionCoreApiKt.completions("FROM logs | ");
+        Set<Integer> released = CompletionCoreApiKt.completions("FROM logs | ", release);
+        Assert.assertTrue(dev.contains(EsqlBaseLexer.DEV_INLINESTATS));
+        Assert.assertFalse(released.contains(EsqlBaseLexer.DEV_INLINESTATS));
+        Assert.assertTrue(dev.containsAll(released));
+    }
+
+    @Test
+    public void testCompletionAtCaret() {
+        String prefix = "    FROM logs\n    | EVAL b = ";
+        String text = "\"\"\"\n" + prefix + "a + 1\n    | WHERE b > 1\n    \"\"\"";
+        int start = 4;
+        int caret = start + prefix.length();
+
+        // mid-query, the suggestions are the ones for the text before the caret, not for the end of the query
+        Set<Integer> atCaret = CompletionCoreApiKt.completions(text, start, caret);
+        Assert.assertEquals(CompletionCoreApiKt.completions(prefix), atCaret);
+        Assert.assertNotEquals(CompletionCoreApiKt.completions(text.substring(start, text.length() - 3)), atCaret);
+        Assert.assertEquals(17, atCaret.size());
+    }
+
+    @Test
+    public void testCompletionInCurrentCommand() {
+        // the walk starts at the last command, which still offers what follows it in the query
+        Set<Integer> afterCommand = CompletionCoreApiKt.completions("FROM logs | WHERE a > 1 | LIMIT 10 ");
+        Assert.assertTrue(afterCommand.contains(EsqlBaseLexer.PIPE));
+        Assert.assertTrue(afterCommand.contains(EsqlBaseLexer.EOF));
+
+        // pipes inside parentheses don't start a command
+        Assert.assertEquals(CompletionCoreApiKt.completions("FROM logs | FORK (WHERE a > 1 | LIMIT 10) (WHERE "),
+            CompletionCoreApiKt.completions("FROM logs | WHERE "));
+
+        // an error in a previous command doesn't prevent completing the current one
+        Assert.assertEquals(CompletionCoreApiKt.completions("FROM logs | "),
+            CompletionCoreApiKt.completions("FROM logs | WHEE x | "));
+    }
+
+    @Test
+    public void testCandidatesCache() {
+        CandidatesCache cache = CompletionCoreApiKt.getCandidatesCache();
+        cache.clear();
+        long hits = cache.getHitCount();
+
+        // same token types before the caret, different identifiers and numbers
+        CandidatesCollection first = CompletionCoreApiKt.completionsWithContext("FROM x | WHERE a == 1 | STATS ");
+        CandidatesCollection second = CompletionCoreApiKt.completionsWithContext("FROM y | WHERE b == 2 | STATS ");
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+        Assert.assertEquals(first.getTokens(), second.getTokens());
+
+        // callers get their own copy
+        second.getTokens().clear();
+        Assert.assertEquals(first.getTokens(),
+            CompletionCoreApiKt.completionsWithContext("FROM z | WHERE c == 3 | STATS ").getTokens());
+
+        // the grammar variant is part of the key
+        EsqlConfig release = new EsqlConfig();
+        release.setDevVersion(false);
+        Assert.assertNotEquals(CompletionCoreApiKt.completions("FROM logs | "),
+            CompletionCoreApiKt.completions("FROM logs | ", release));
+
+        cache.setMaxSize(0);
+        try {
+            Assert.assertEquals(0, cache.getSize());
+            CompletionCoreApiKt.completions("FROM x | WHERE a == 1 | STATS ");
+            Assert.assertEquals(0, cache.getSize());
+        } finally {
+            cache.setMaxSize(CompletionCoreApiKt.DEFAULT_CANDIDATES_CACHE_SIZE);
+        }
+    }
+}
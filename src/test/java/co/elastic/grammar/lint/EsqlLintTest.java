@@ -0,0 +1,105 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.grammar.lint;
+
+import co.elastic.grammar.EsqlConfig;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+public class EsqlLintTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLintSourceTree() throws IOException {
+        write("src/Queries.java", """
+            class Queries {
+                // ES|QL
+                String valid = \"""
+                    FROM logs | LIMIT 10
+                    \""";
+                // ES|QL
+                String invalid = \"""
+                    FROM logs
+                    | WHEE x
+                    \""";
+            }
+            """);
+        write("src/queries.kt", "// ES|QL\n\nval q = \"\"\"ROW a = 1\"\"\"\n");
+        write("src/query.esql", "FROM logs | STATS BY\n");
+        write("src/Plain.java", "class Plain { String s = \"\"\"\n    FROM logs | WHEE x\"\"\"; }\n");
+        // skipped directories
+        write("build/generated.esql", "FROM logs | WHEE x\n");
+        write(".hidden/hidden.esql", "FROM logs | WHEE x\n");
+
+        EsqlLint.Result result = EsqlLint.lint(List.of(folder.getRoot().toPath()), new EsqlConfig(), 2);
+
+        Assert.assertEquals(4, result.files);
+        Assert.assertEquals(4, result.queries);
+        Assert.assertEquals(2, result.diagnostics.size());
+
+        EsqlDiagnostic wheeError = result.diagnostics.get(0);
+        Assert.assertTrue(wheeError.file.endsWith("src/Queries.java"));
+        Assert.assertEquals(9, wheeError.line);
+        Assert.assertEquals(11, wheeError.column);
+        Assert.assertEquals(4, wheeError.end - wheeError.start);
+        Assert.assertTrue(wheeError.message.contains("mismatched input 'WHEE'"));
+
+        EsqlDiagnostic statsError = result.diagnostics.get(1);
+        Assert.assertTrue(statsError.file.endsWith("src/query.esql"));
+        Assert.assertEquals(1, statsError.line);
+        Assert.assertEquals(21, statsError.column);
+    }
+
+    @Test
+    public void testMachineReadableFormats() throws IOException {
+        List<EsqlDiagnostic> diagnostics = List.of(
+            new EsqlDiagnostic("src/a.esql", 2, 3, 12, 16, "mismatched input 'WHEE' expecting {\"x\"}"));
+
+        StringBuilder json = new StringBuilder();
+        EsqlLintFormat.JSON.write(diagnostics, json);
+        Assert.assertEquals("[\n  {\"file\": \"src/a.esql\", \"line\": 2, \"column\": 3, \"start\": 12, \"end\": 16, "
+                            + "\"message\": \"mismatched input 'WHEE' expecting {\\\"x\\\"}\"}\n]\n", json.toString());
+
+        StringBuilder empty = new StringBuilder();
+        EsqlLintFormat.JSON.write(List.of(), empty);
+        Assert.assertEquals("[]\n", empty.toString());
+
+        StringBuilder sarif = new StringBuilder();
+        EsqlLintFormat.SARIF.write(diagnostics, sarif);
+        Assert.assertTrue(sarif.toString().contains("\"version\": \"2.1.0\""));
+        Assert.assertTrue(sarif.toString().contains("\"uri\": \"src/a.esql\"}, \"region\": {\"startLine\": 2, "
+                                                    + "\"startColumn\": 3, \"charOffset\": 12, \"charLength\": 4}"));
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(folder.getRoot(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+}
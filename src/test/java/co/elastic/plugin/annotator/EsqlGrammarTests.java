@@ -18,10 +18,14 @@
  */
 package co.elastic.plugin.annotator;
 
+import co.elastic.grammar.CharSequenceCharStream;
 import co.elastic.grammar.EsqlBaseLexer;
 import co.elastic.grammar.EsqlBaseParser;
+import co.elastic.grammar.EsqlParserSession;
+import com.intellij.openapi.util.TextRange;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -30,6 +34,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.List;
 
 public class EsqlGrammarTests {
 
@@ -54,4 +59,170 @@ public class EsqlGrammarTests {
         Assert.assertTrue(errorListener.errors.get(0).message.contains("mismatched input 'WHEE'"));
         Assert.assertTrue(errorListener.errors.get(1).message.contains("mismatched input '<EOF>'"));
     }
+
+    @Test
+    public void testValidateTextRanges() {
+
+        // text block starting at offset 100 in the file, error on the second line of the query
+        String text = "\"\"\"\nFROM logs\n| WHEE x\n\"\"\"";
+        String fileText = " ".repeat(100) + text + "\n| WHEE y";
+
+        EsqlAnnotator.LiteralResult result =
+            EsqlAnnotator.validateText(new EsqlParseCache(10), fileText, new TextRange(100, 100 + text.length()));
+        List<EsqlAnnotator.ErrorAnnotation> errors = result.errors;
+
+        Assert.assertEquals(1, errors.size());
+        Assert.assertEquals(116, errors.get(0).range.getStartOffset());
+        Assert.assertEquals(120, errors.get(0).range.getEndOffset());
+        Assert.assertTrue(errors.get(0).message.contains("mismatched input 'WHEE'"));
+    }
+
+    @Test
+    public void testValidateQueryWithoutQuotes() {
+
+        // .esql file, the query isn't inside a literal
+        String fileText = "\nFROM logs\n| WHEE x\n";
+
+        EsqlAnnotator.LiteralResult result = EsqlAnnotator.validateQuery(fileText,
+            new TextRange(0, fileText.length()), 1, fileText.length() - 1, () -> EsqlAnnotator.parse(fileText, 1,
+                fileText.length() - 1));
+
+        Assert.assertEquals(1, result.errors.size());
+        Assert.assertEquals(13, result.errors.get(0).range.getStartOffset());
+        Assert.assertEquals(0, result.range.getStartOffset());
+        // FROM, WHEE isn't a command
+        Assert.assertEquals(1, result.keywords.size());
+    }
+
+    @Test
+    public void testValidateRangeAfterSurrogatePair() {
+
+        // the emoji is two chars in the editor, but one code point in the lexer's position in the line
+        String fileText = "FROM logs | EVAL s = \"\uD83D\uDE00\" | WHEE x";
+
+        EsqlAnnotator.LiteralResult result = EsqlAnnotator.validateQuery(fileText,
+            new TextRange(0, fileText.length()), 0, fileText.length(), () -> EsqlAnnotator.parse(fileText));
+
+        Assert.assertEquals(1, result.errors.size());
+        Assert.assertEquals(fileText.indexOf("WHEE"), result.errors.get(0).range.getStartOffset());
+        Assert.assertEquals(fileText.indexOf("WHEE") + 4, result.errors.get(0).range.getEndOffset());
+    }
+
+    @Test
+    public void testTwoStageParsingReportsSameErrors() throws IOException {
+
+        String[] queries = new String[]{
+            "FROM employees | LOOKUP JOIN languages ON language_code | KEEP emp_no",
+            "FROM employees\n| WHEE salary > 1000\n| KEEP emp_no",
+            "FROM logs | WHERE | STATS BY",
+        };
+
+        for (String query : queries) {
+            // plain LL parse, as the validation used to do
+            EsqlBaseLexer lexer = new EsqlBaseLexer(CharStreams.fromString(query));
+            EsqlBaseParser parser = new EsqlBaseParser(new CommonTokenStream(lexer));
+            EsqlErrorListener errorListener = new EsqlErrorListener(new ArrayList<>());
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(errorListener);
+            parser.removeErrorListeners();
+            parser.addErrorListener(errorListener);
+            parser.singleStatement();
+
+            List<EsqlErrorListener.Error> errors = EsqlAnnotator.parse(query).errors;
+
+            Assert.assertEquals(errorListener.errors.size(), errors.size());
+            for (int i = 0; i < errors.size(); i++) {
+                Assert.assertEquals(errorListener.errors.get(i).message, errors.get(i).message);
+                Assert.assertEquals(errorListener.errors.get(i).line, errors.get(i).line);
+                Assert.assertEquals(errorListener.errors.get(i).charPositionInLine, errors.get(i).charPositionInLine);
+            }
+        }
+    }
+
+    @Test
+    public void testHighlightsFromTokens() {
+
+        String query = "FROM logs | LOOKUP JOIN hosts ON host | EVAL e = E(), s = \"WHERE COS\" | WHERE COS(x) > 0";
+
+        int[] highlights = EsqlAnnotator.parse(query).highlights;
+
+        List<String> highlighted = new ArrayList<>();
+        for (int i = 0; i < highlights.length; i += 2) {
+            highlighted.add(query.substring(highlights[i], highlights[i + 1]));
+        }
+        // nothing inside the string literal, function names only when called
+        Assert.assertEquals(List.of("FROM", "LOOKUP", "JOIN", "EVAL", "E", "WHERE", "COS"), highlighted);
+    }
+
+    @Test
+    public void testCharSequenceStreamMatchesCodePointStream() {
+
+        String query = "FROM logs-* | WHERE message == \"caf\u00e9\" // comment\n| STATS c = COUNT(*) BY host";
+        String text = "foo(\"\"\"" + query + "\"\"\")";
+        int start = text.indexOf(query);
+
+        List<? extends Token> expected = new EsqlBaseLexer(CharStreams.fromString(query)).getAllTokens();
+        List<? extends Token> actual =
+            new EsqlBaseLexer(new CharSequenceCharStream(new StringBuilder(text), start, start + query.length()))
+                .getAllTokens();
+
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getType(), actual.get(i).getType());
+            Assert.assertEquals(expected.get(i).getText(), actual.get(i).getText());
+            Assert.assertEquals(expected.get(i).getStartIndex(), actual.get(i).getStartIndex());
+            Assert.assertEquals(expected.get(i).getLine(), actual.get(i).getLine());
+        }
+    }
+
+    @Test
+    public void testParserSessionReuse() {
+
+        EsqlParserSession first;
+        try (EsqlParserSession session = EsqlParserSession.acquire(CharStreams.fromString("FROM logs | WHEE x"), null)) {
+            first = session;
+            // a session still in use is never handed out twice
+            try (EsqlParserSession nested = EsqlParserSession.acquire(CharStreams.fromString("ROW a = 1"), null)) {
+                Assert.assertNotSame(session, nested);
+                Assert.assertEquals(0, nested.parser().getNumberOfSyntaxErrors());
+            }
+            session.singleStatement();
+            Assert.assertEquals(1, session.parser().getNumberOfSyntaxErrors());
+        }
+
+        try (EsqlParserSession session = EsqlParserSession.acquire(CharStreams.fromString("ROW a = 1"), null)) {
+            Assert.assertSame(first, session);
+            session.singleStatement();
+            Assert.assertEquals(0, session.parser().getNumberOfSyntaxErrors());
+        }
+
+        // a parse through the reused session sees the same errors as a fresh one
+        Assert.assertEquals(1, EsqlAnnotator.parse("FROM logs | WHEE x").errors.size());
+        Assert.assertEquals(1, EsqlAnnotator.parse("FROM logs | WHEE x").errors.size());
+    }
+
+    @Test
+    public void testParserSessionCancellation() {
+
+        String query = "FROM logs | WHERE a > 1 | EVAL b = a + 1 | STATS c = COUNT(*) BY b | SORT c | LIMIT 10";
+        RuntimeException cancel = new RuntimeException("canceled");
+        int[] checks = new int[1];
+        try (EsqlParserSession session = EsqlParserSession.acquire(CharStreams.fromString(query), null, () -> {
+            if (++checks[0] == 10) {
+                throw cancel;
+            }
+        })) {
+            session.singleStatement();
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertSame(cancel, e);
+        }
+
+        // the session is usable again, without the check
+        try (EsqlParserSession session = EsqlParserSession.acquire(CharStreams.fromString(query), null)) {
+            session.singleStatement();
+            Assert.assertEquals(0, session.parser().getNumberOfSyntaxErrors());
+        }
+        Assert.assertEquals(10, checks[0]);
+    }
 }
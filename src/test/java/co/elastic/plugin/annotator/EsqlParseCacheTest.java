@@ -0,0 +1,89 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.annotator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+public class EsqlParseCacheTest {
+
+    private static final Supplier<EsqlParseResult> EMPTY = () -> new EsqlParseResult(List.of(), new int[0]);
+
+    @Test
+    public void testHitsAndMisses() {
+        EsqlParseCache cache = new EsqlParseCache(10);
+
+        EsqlParseResult first = cache.computeIfAbsent("FROM logs | WHEE x", true,
+            () -> EsqlAnnotator.parse("FROM logs | WHEE x"));
+        EsqlParseResult second = cache.computeIfAbsent("FROM logs | WHEE x", true,
+            () -> {
+                throw new AssertionError("should have been cached");
+            });
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, first.errors.size());
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+
+        // same text in a different grammar mode is a different entry
+        cache.computeIfAbsent("FROM logs | WHEE x", false, EMPTY);
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        EsqlParseCache cache = new EsqlParseCache(2);
+
+        cache.computeIfAbsent("ROW a = 1", true, EMPTY);
+        cache.computeIfAbsent("ROW b = 2", true, EMPTY);
+        // touching the first entry makes the second one the eldest
+        cache.computeIfAbsent("ROW a = 1", true, EMPTY);
+        cache.computeIfAbsent("ROW c = 3", true, EMPTY);
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        cache.computeIfAbsent("ROW a = 1", true, EMPTY);
+        Assert.assertEquals(2, cache.getHitCount());
+        cache.computeIfAbsent("ROW b = 2", true, EMPTY);
+        Assert.assertEquals(4, cache.getMissCount());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLookupInPlace() {
+        EsqlParseCache cache = new EsqlParseCache(10);
+
+        StringBuilder file = new StringBuilder("query(\"\"\"ROW a = 1\"\"\")");
+        EsqlParseResult first = cache.computeIfAbsent(file, 9, 18, true, EMPTY);
+
+        // the cached entry doesn't depend on the text it was first found in
+        file.setLength(0);
+        file.append("ROW a = 1");
+        Assert.assertSame(first, cache.computeIfAbsent(file, 0, file.length(), true, EMPTY));
+        Assert.assertSame(first, cache.computeIfAbsent("ROW a = 1", true, EMPTY));
+        Assert.assertEquals(2, cache.getHitCount());
+    }
+}
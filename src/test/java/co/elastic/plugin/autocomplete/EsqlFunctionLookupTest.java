@@ -0,0 +1,71 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.autocomplete;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+import static co.elastic.plugin.CommonUtils.FUNCTIONS;
+
+public class EsqlFunctionLookupTest {
+
+    @Test
+    public void testPrefixLookup() {
+        Assert.assertEquals(FUNCTIONS.length, EsqlFunctionLookup.withPrefix("").size());
+
+        List<String> names = EsqlFunctionLookup.withPrefix("co").stream().map(f -> f.name).toList();
+        Assert.assertEquals(List.of("COALESCE", "CONCAT", "COS", "COSH"), names);
+
+        Assert.assertEquals(List.of("MV_SLICE"),
+            EsqlFunctionLookup.withPrefix("MV_SL").stream().map(f -> f.name).toList());
+        Assert.assertTrue(EsqlFunctionLookup.withPrefix("ZZ").isEmpty());
+        Assert.assertEquals(names.size(), EsqlFunctionLookup.lookupElements("CO").size());
+    }
+
+    @Test
+    public void testPrefixAtCaret() {
+        // right after a keyword and a space, every function
+        Assert.assertEquals("", EsqlFunctionLookup.prefixAt("FROM logs | WHERE "));
+        Assert.assertEquals("", EsqlFunctionLookup.prefixAt("FROM logs | STATS "));
+        Assert.assertEquals("", EsqlFunctionLookup.prefixAt("FROM logs | EVAL x = abs "));
+        Assert.assertEquals(FUNCTIONS.length, EsqlFunctionLookup.withPrefix(
+            EsqlFunctionLookup.prefixAt("FROM logs | WHERE ")).size());
+
+        Assert.assertEquals("mv_sl", EsqlFunctionLookup.prefixAt("FROM logs | EVAL x = mv_sl"));
+        Assert.assertEquals("co", EsqlFunctionLookup.prefixAt("FROM logs | STATS max(co"));
+    }
+
+    @Test
+    public void testSignaturesFromDocs() {
+        EsqlFunctionLookup.Function left = EsqlFunctionLookup.withPrefix("LEFT").get(0);
+        Assert.assertEquals("(string, length)", left.parameters);
+        Assert.assertEquals("keyword", left.returnTypes);
+
+        EsqlFunctionLookup.Function cbrt = EsqlFunctionLookup.withPrefix("CBRT").get(0);
+        Assert.assertEquals("(number)", cbrt.parameters);
+        Assert.assertEquals("double", cbrt.returnTypes);
+
+        // version notes aren't types
+        for (EsqlFunctionLookup.Function function : EsqlFunctionLookup.withPrefix("")) {
+            Assert.assertFalse(function.name, function.returnTypes.contains("stack"));
+        }
+    }
+}
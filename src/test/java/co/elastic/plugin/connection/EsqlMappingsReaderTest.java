@@ -0,0 +1,161 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.connection;
+
+import jakarta.json.Json;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParsingException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+public class EsqlMappingsReaderTest {
+
+    @Test
+    public void testFieldsOfEveryIndex() {
+        String response = """
+            {
+              "employees": {
+                "mappings": {
+                  "_meta": {"owner": ["hr", {"team": "x"}]},
+                  "dynamic": false,
+                  "properties": {
+                    "emp_no": {"type": "integer"},
+                    "message": {"fields": {"keyword": {"type": "keyword", "ignore_above": 256}}, "type": "text"},
+                    "host": {"properties": {"name": {"type": "keyword"}, "ip": {"type": "ip"}}}
+                  }
+                }
+              },
+              "empty": {"mappings": {}},
+              "aliased": {"aliases": {}, "mappings": {"properties": {"a": {"type": "long"}}}}
+            }
+            """;
+
+        EsqlFieldCatalog catalog = read(response, index -> true);
+
+        Assert.assertEquals(3, catalog.indices().size());
+        // objects by their path, multi-fields after their field
+        Assert.assertEquals("[emp_no:integer, message:text, message.keyword:keyword, host.name:keyword, host.ip:ip]",
+            catalog.fields("employees").toString());
+        Assert.assertEquals(List.of(), catalog.fields("empty"));
+        Assert.assertEquals("[a:long]", catalog.fields("aliased").toString());
+    }
+
+    @Test
+    public void testSharedMappings() {
+        String mapping = "{\"mappings\": {\"properties\": {\"host\": {\"type\": \"object\", \"properties\": "
+                         + "{\"name\": {\"type\": \"keyword\"}}}, \"tags\": {\"type\": \"nested\", \"properties\": "
+                         + "{\"id\": {\"type\": \"long\"}}}}}}";
+        String response = "{\"logs-1\": " + mapping + ", \"logs-2\": " + mapping + ", \".internal-x\": " + mapping
+                          + ", \"metrics\": {\"mappings\": {\"properties\": {\"host\": {\"properties\": "
+                          + "{\"name\": {\"type\": \"text\"}}}}}}}";
+
+        EsqlFieldCatalog catalog = read(response, index -> !index.startsWith(".internal"));
+
+        Assert.assertEquals(3, catalog.indices().size());
+        // object and nested fields aren't leaves
+        Assert.assertEquals("[host.name:keyword, tags.id:long]", catalog.fields("logs-1").toString());
+        // the same mapping is held once
+        Assert.assertEquals(2, catalog.schemaCount());
+        Assert.assertSame(catalog.fields("logs-1"), catalog.fields("logs-2"));
+        // whatever the type
+        Assert.assertEquals(List.of("logs-1", "logs-2", "metrics"), sorted(catalog.indicesOf("host.name")));
+        Assert.assertSame(catalog.fields("logs-1").get(0).path, catalog.fields("metrics").get(0).path);
+    }
+
+    @Test
+    public void testPartialRefresh() {
+        String mapping = "{\"mappings\": {\"properties\": {\"host\": {\"properties\": "
+                         + "{\"name\": {\"type\": \"keyword\"}}}}}}";
+        EsqlFieldCatalog.Builder first = new EsqlFieldCatalog.Builder();
+        try (JsonParser parser = Json.createParser(new StringReader(
+            "{\"logs-1\": " + mapping + ", \"logs-2\": " + mapping + ", \"old\": " + mapping + "}"))) {
+            EsqlMappingsReader.read(parser, first, index -> true);
+        }
+        first.version("logs-1", "a/1");
+        first.version("logs-2", "b/1");
+        first.version("old", "c/1");
+        EsqlFieldCatalog base = first.build();
+
+        // logs-2 changed, old was deleted, new was created
+        EsqlFieldCatalog.Builder second = new EsqlFieldCatalog.Builder();
+        second.addAll(base, index -> index.equals("logs-1"));
+        try (JsonParser parser = Json.createParser(new StringReader(
+            "{\"logs-2\": {\"mappings\": {\"properties\": {\"message\": {\"type\": \"text\"}}}}, \"new\": "
+            + mapping + "}"))) {
+            EsqlMappingsReader.read(parser, second, index -> true);
+        }
+        second.version("logs-2", "b/2");
+        second.version("new", "d/1");
+        second.version("gone", "e/1");
+        EsqlFieldCatalog catalog = second.build();
+
+        Assert.assertEquals(List.of("logs-1", "logs-2", "new"), sorted(catalog.indices()));
+        Assert.assertEquals("[message:text]", catalog.fields("logs-2").toString());
+        // the kept fields are shared with the ones read
+        Assert.assertEquals(2, catalog.schemaCount());
+        Assert.assertSame(catalog.fields("logs-1"), catalog.fields("new"));
+        Assert.assertEquals("a/1", catalog.version("logs-1"));
+        Assert.assertEquals("b/2", catalog.version("logs-2"));
+        Assert.assertNull(catalog.version("old"));
+        Assert.assertNull(catalog.version("gone"));
+    }
+
+    @Test
+    public void testMappingVersions() {
+        String response = """
+            {
+              "metadata": {
+                "indices": {
+                  "employees": {"mapping_version": 3, "settings": {"index": {"uuid": "Xq1", "other": [1]}}},
+                  "logs": {"settings": {"index": {"uuid": "Zt2"}}, "mapping_version": 12}
+                }
+              }
+            }
+            """;
+
+        try (JsonParser parser = Json.createParser(new StringReader(response))) {
+            Assert.assertEquals(Map.of("employees", "Xq1/3", "logs", "Zt2/12"),
+                EsqlMappingsReader.readMappingVersions(parser));
+        }
+        // no indices at all
+        try (JsonParser parser = Json.createParser(new StringReader("{}"))) {
+            Assert.assertEquals(Map.of(), EsqlMappingsReader.readMappingVersions(parser));
+        }
+    }
+
+    @Test(expected = JsonParsingException.class)
+    public void testNotMappings() {
+        read("[\"employees\"]", index -> true);
+    }
+
+    private static EsqlFieldCatalog read(String response, Predicate<String> includeIndex) {
+        try (JsonParser parser = Json.createParser(new StringReader(response))) {
+            return EsqlMappingsReader.read(parser, includeIndex);
+        }
+    }
+
+    private static List<String> sorted(List<String> values) {
+        return values.stream().sorted().toList();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package co.elastic.plugin.connection;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EsqlSchemaSnapshotTest {
+
+    private static final EsqlFieldCatalog CATALOG = catalog(Map.of(
+        "employees", List.of("emp_no:integer", "host.name:keyword", "caf\u00e9:text"),
+        "employees-old", List.of("emp_no:integer", "host.name:keyword", "caf\u00e9:text"),
+        "empty", List.of()));
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("esql").resolve("schema.bin");
+
+        EsqlSchemaSnapshot.write(file, CATALOG);
+        EsqlFieldCatalog read = EsqlSchemaSnapshot.read(file);
+        Assert.assertEquals(fields(CATALOG), fields(read));
+        // indices with the same fields still share them
+        Assert.assertEquals(2, read.schemaCount());
+        Assert.assertSame(read.fields("employees"), read.fields("employees-old"));
+        Assert.assertEquals("Xq1/3", read.version("employees"));
+        Assert.assertNull(read.version("employees-old"));
+
+        // replaced in place, without leaving temporary files behind
+        EsqlFieldCatalog logs = catalog(Map.of("logs", List.of("message:text")));
+        EsqlSchemaSnapshot.write(file, logs);
+        Assert.assertEquals(fields(logs), fields(EsqlSchemaSnapshot.read(file)));
+        try (var files = Files.list(file.getParent())) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testRejectsChangedFiles() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("schema.bin");
+        EsqlSchemaSnapshot.write(file, CATALOG);
+        byte[] bytes = Files.readAllBytes(file);
+
+        // a flipped bit in the payload
+        byte[] corrupted = bytes.clone();
+        corrupted[corrupted.length - 2] ^= 1;
+        assertRejected(file, corrupted, "Corrupted");
+
+        // a partial write
+        assertRejected(file, Arrays.copyOf(bytes, bytes.length - 3), "Truncated");
+        assertRejected(file, Arrays.copyOf(bytes, 6), "Corrupted");
+
+        // another format version
+        byte[] version = bytes.clone();
+        version[7] = (byte) (EsqlSchemaSnapshot.VERSION + 1);
+        assertRejected(file, version, "version");
+
+        assertRejected(file, "not a snapshot".getBytes(), "Not an ES|QL schema snapshot");
+    }
+
+    // path:type
+    private static EsqlFieldCatalog catalog(Map<String, List<String>> fields) {
+        EsqlFieldCatalog.Builder builder = new EsqlFieldCatalog.Builder();
+        fields.forEach((index, pathsAndTypes) -> {
+            List<EsqlFieldCatalog.Field> indexFields = new ArrayList<>();
+            for (String pathAndType : pathsAndTypes) {
+                String[] parts = pathAndType.split(":");
+                indexFields.add(builder.field(parts[0], parts[1]));
+            }
+            builder.add(index, indexFields);
+        });
+        builder.version("employees", "Xq1/3");
+        return builder.build();
+    }
+
+    private static Map<String, String> fields(EsqlFieldCatalog catalog) {
+        Map<String, String> fields = new HashMap<>();
+        for (String index : catalog.indices()) {
+            fields.put(index, catalog.fields(index).toString());
+        }
+        return fields;
+    }
+
+    private static void assertRejected(Path file, byte[] content, String message) throws IOException {
+        Files.write(file, content);
+        try {
+            EsqlSchemaSnapshot.read(file);
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+}